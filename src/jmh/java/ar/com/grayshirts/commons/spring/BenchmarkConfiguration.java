@@ -0,0 +1,97 @@
+package ar.com.grayshirts.commons.spring;
+
+import ar.com.grayshirts.commons.spring.mail.DiscardingMailSender;
+import ar.com.grayshirts.commons.spring.mail.MailService;
+import ar.com.grayshirts.commons.spring.pdf.PdfService;
+import ar.com.grayshirts.commons.spring.template.TemplateConfiguration;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.mail.javamail.JavaMailSender;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Spring context used by the benchmarks, with the services of the library and
+ * a {@link DiscardingMailSender} instead of a real SMTP connection.
+ */
+@Configuration
+@Import(TemplateConfiguration.class)
+public class BenchmarkConfiguration {
+
+    @Bean
+    public static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
+        return new PropertySourcesPlaceholderConfigurer();
+    }
+
+    @Bean
+    public PdfService pdfService() {
+        return new PdfService();
+    }
+
+    @Bean
+    public MailService mailService() {
+        return new MailService();
+    }
+
+    @Bean
+    public JavaMailSender javaMailSender() {
+        return new DiscardingMailSender();
+    }
+
+    /**
+     * Creates and refreshes a context with this configuration, the default benchmark
+     * properties, overridden by `properties`.
+     */
+    public static AnnotationConfigApplicationContext createContext(Map<String, Object> properties) {
+        return createContext(properties, BenchmarkConfiguration.class);
+    }
+
+    /**
+     * Creates and refreshes a context with `configuration` and the default benchmark
+     * properties, overridden by `properties`. System properties take precedence over both.
+     */
+    public static AnnotationConfigApplicationContext createContext(Map<String, Object> properties,
+                                                                   Class<?> configuration) {
+        Map<String, Object> props = new HashMap<>();
+        props.put("spring.mail.username", "bench@example.com");
+        props.put("spring.mail.senderDomain", "no-reply@example.com");
+        props.put("spring.mail.senderName", "Benchmark");
+        props.put("spring.mail.enable", "false");
+        props.put("spring.mail.cco", "");
+        if (properties != null) props.putAll(properties);
+
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addLast(new MapPropertySource("benchmark", props));
+        context.register(configuration);
+        context.refresh();
+        return context;
+    }
+
+    /**
+     * Template context with `rows` rows of sample data, used by
+     * the <code>reports/table</code> templates.
+     */
+    public static Map<String, Object> tableContext(int rows) {
+        Map<String, Object> context = new HashMap<>();
+        context.put("title", "Transactions report");
+        context.put("user", "John Doe");
+        context.put("date", "2017-01-01");
+        List<Map<String, Object>> list = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("id", i);
+            row.put("description", "Transaction number " + i);
+            row.put("amount", i * 10.5);
+            list.add(row);
+        }
+        context.put("rows", list);
+        return context;
+    }
+}
@@ -0,0 +1,69 @@
+package ar.com.grayshirts.commons.spring.mail;
+
+import com.google.common.io.ByteStreams;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailPreparationException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessagePreparator;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+
+/**
+ * {@link JavaMailSender} stub that serializes the MIME messages,
+ * as the transport does, and then discards them.
+ */
+public class DiscardingMailSender implements JavaMailSender {
+
+    private final Session session = Session.getInstance(new Properties());
+
+    @Override public MimeMessage createMimeMessage() {
+        return new MimeMessage(session);
+    }
+
+    @Override public MimeMessage createMimeMessage(InputStream contentStream) throws MailException {
+        try {
+            return new MimeMessage(session, contentStream);
+        } catch (MessagingException e) {
+            throw new MailPreparationException("Could not parse MIME message", e);
+        }
+    }
+
+    @Override public void send(MimeMessage mimeMessage) throws MailException {
+        try {
+            mimeMessage.saveChanges();
+            mimeMessage.writeTo(ByteStreams.nullOutputStream());
+        } catch (MessagingException | IOException e) {
+            throw new MailPreparationException("Could not write MIME message", e);
+        }
+    }
+
+    @Override public void send(MimeMessage... mimeMessages) throws MailException {
+        for (MimeMessage m : mimeMessages) send(m);
+    }
+
+    @Override public void send(MimeMessagePreparator mimeMessagePreparator) throws MailException {
+        MimeMessage mimeMessage = createMimeMessage();
+        try {
+            mimeMessagePreparator.prepare(mimeMessage);
+        } catch (Exception e) {
+            throw new MailPreparationException(e);
+        }
+        send(mimeMessage);
+    }
+
+    @Override public void send(MimeMessagePreparator... mimeMessagePreparators) throws MailException {
+        for (MimeMessagePreparator p : mimeMessagePreparators) send(p);
+    }
+
+    @Override public void send(SimpleMailMessage simpleMessage) throws MailException {
+    }
+
+    @Override public void send(SimpleMailMessage... simpleMessages) throws MailException {
+    }
+}
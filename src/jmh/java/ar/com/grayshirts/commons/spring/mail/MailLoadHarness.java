@@ -0,0 +1,213 @@
+package ar.com.grayshirts.commons.spring.mail;
+
+import ar.com.grayshirts.commons.spring.BenchmarkConfiguration;
+import ar.com.grayshirts.commons.spring.template.TemplateConfiguration;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.mail.javamail.JavaMailSender;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Load test of {@link MailService} and {@link AsyncMailSender} against a {@link SmtpSink}.<br/>
+ * Sends e-mails at a target rate during a period of time, and reports the sustained
+ * throughput, the executor queue depth and the p50/p99 enqueue and delivery latencies.
+ * <p>
+ * Settings are taken from system properties:
+ * <ul>
+ *     <li><code>load.rate</code>: e-mails per second (default 100)</li>
+ *     <li><code>load.duration</code>: seconds sending (default 30)</li>
+ *     <li><code>load.latency</code>: milliseconds the SMTP sink takes per message (default 20)</li>
+ *     <li><code>load.maxPerSecond</code>: messages per second accepted by the SMTP sink (default 0, no limit)</li>
+ *     <li><code>load.failureRate</code>: probability of delivery failures (default 0)</li>
+ *     <li><code>load.priority</code>: lane of the e-mails sent, see {@link MailPriority} (default NORMAL)</li>
+ *     <li><code>load.relays</code>: number of SMTP sinks, configured as <code>spring.mail.relays</code>
+ *         when more than one (default 1)</li>
+ *     <li><code>spring.mail.corePoolSize</code>, <code>spring.mail.maxPoolSize</code>,
+ *         <code>spring.mail.queueCapacity</code>, <code>spring.mail.lanes.*</code>: the {@link MailConfiguration}
+ *         settings to test</li>
+ * </ul>
+ * Run it with:
+ * <pre>
+ *   mvn -P jmh test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=ar.com.grayshirts.commons.spring.mail.MailLoadHarness \
+ *       -Dload.rate=200 -Dspring.mail.maxPoolSize=8
+ * </pre>
+ */
+public class MailLoadHarness {
+
+    private static final Pattern SUBJECT = Pattern.compile("^Subject: load-(\\d+)\\r?$", Pattern.MULTILINE);
+
+    @Configuration
+    @Import({TemplateConfiguration.class, MailConfiguration.class})
+    static class LoadConfiguration {
+
+        @Bean
+        public static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
+            return new PropertySourcesPlaceholderConfigurer();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rate = Integer.getInteger("load.rate", 100);
+        int duration = Integer.getInteger("load.duration", 30);
+        int total = rate * duration;
+        MailPriority priority = MailPriority.valueOf(System.getProperty("load.priority", "NORMAL"));
+
+        long[] enqueuedAt = new long[total];
+        long[] enqueueLatency = new long[total];
+        long[] deliveryLatency = new long[total];
+        Arrays.fill(deliveryLatency, -1);
+
+        List<SmtpSink> sinks = new ArrayList<>();
+        try {
+            for (int i = Integer.getInteger("load.relays", 1); i > 0; i--) {
+                SmtpSink sink = new SmtpSink(0);
+                sink.setLatencyMillis(Long.getLong("load.latency", 20));
+                sink.setMaxMessagesPerSecond(Integer.getInteger("load.maxPerSecond", 0));
+                sink.setFailureRate(Double.parseDouble(System.getProperty("load.failureRate", "0")));
+                sink.setListener((receivedNanos, message) -> {
+                    Matcher matcher = SUBJECT.matcher(new String(message, StandardCharsets.ISO_8859_1));
+                    if (matcher.find()) {
+                        int seq = Integer.parseInt(matcher.group(1));
+                        deliveryLatency[seq] = receivedNanos - enqueuedAt[seq];
+                    }
+                });
+                sinks.add(sink);
+            }
+            SinkTotals sink = new SinkTotals(sinks);
+
+            Map<String, Object> props = new HashMap<>();
+            props.put("spring.mail.enable", "true");
+            props.put("spring.mail.password", "");
+            props.put("spring.mail.host", "localhost");
+            props.put("spring.mail.port", String.valueOf(sinks.get(0).getPort()));
+            if (sinks.size() > 1) {
+                props.put("spring.mail.relays",
+                          sinks.stream().map(s -> "localhost:" + s.getPort()).collect(Collectors.joining(",")));
+            }
+            props.put("spring.mail.properties.smtp.auth", "false");
+            props.put("spring.mail.properties.smtp.starttls.enable", "false");
+
+            try (AnnotationConfigApplicationContext context =
+                     BenchmarkConfiguration.createContext(props, LoadConfiguration.class)) {
+                MailService mailService = context.getBean(MailService.class);
+                AsyncMailSender sender = (AsyncMailSender) context.getBean(JavaMailSender.class);
+                Map<String, Object> templateContext = BenchmarkConfiguration.tableContext(10);
+
+                long maxQueue = 0, sumQueue = 0, samples = 0;
+                int enqueued = 0, rejected = 0;
+                long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+                long start = System.nanoTime();
+                for (int seq = 0; seq < total; seq++) {
+                    long next = start + seq * intervalNanos;
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) LockSupport.parkNanos(wait);
+
+                    enqueuedAt[seq] = System.nanoTime();
+                    try {
+                        mailService.send("welcome", "base", "load-" + seq, new String[] { "john@example.com" },
+                                         templateContext, null, priority);
+                        enqueued++;
+                    } catch (TaskRejectedException e) {
+                        rejected++;
+                    }
+                    enqueueLatency[seq] = System.nanoTime() - enqueuedAt[seq];
+
+                    int queue = sender.getQueueSize();
+                    maxQueue = Math.max(maxQueue, queue);
+                    sumQueue += queue;
+                    samples++;
+                }
+                long sendingNanos = System.nanoTime() - start;
+
+                // Wait until all the enqueued e-mails are delivered or failed
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(120);
+                while (sink.getAccepted() + sink.getFailed() + sink.getThrottled() < enqueued
+                       && System.nanoTime() < deadline) {
+                    Thread.sleep(100);
+                }
+                long totalNanos = System.nanoTime() - start;
+
+                Environment env = context.getEnvironment();
+                String queueCapacity = env.getProperty("spring.mail.queueCapacity", "1000");
+                if (sender.getTaskExecutor() instanceof MailLaneExecutor) {
+                    System.out.printf("Lanes: shared=%s reserved=%s capacity=%s/%s/%s, sink latency=%dms%n",
+                                      env.getProperty("spring.mail.maxPoolSize", "2"),
+                                      env.getProperty("spring.mail.lanes.reservedWorkers", "1"),
+                                      env.getProperty("spring.mail.lanes.transactional.capacity", queueCapacity),
+                                      env.getProperty("spring.mail.lanes.normal.capacity", queueCapacity),
+                                      env.getProperty("spring.mail.lanes.bulk.capacity", queueCapacity),
+                                      Long.getLong("load.latency", 20));
+                } else {
+                    System.out.printf("Pool: %s core=%s max=%s queue=%s, sink latency=%dms%n",
+                                      sender.getTaskExecutor().getClass().getSimpleName(),
+                                      env.getProperty("spring.mail.corePoolSize", "1"),
+                                      env.getProperty("spring.mail.maxPoolSize", "2"),
+                                      queueCapacity,
+                                      Long.getLong("load.latency", 20));
+                }
+                System.out.printf("Offered: %d e-mails in %.1fs (%.1f/s), enqueued=%d rejected=%d%n",
+                                  total, sendingNanos / 1e9, total / (sendingNanos / 1e9), enqueued, rejected);
+                System.out.printf("Delivered: %d in %.1fs (%.1f/s), failed=%d throttled=%d%n",
+                                  sink.getAccepted(), totalNanos / 1e9, sink.getAccepted() / (totalNanos / 1e9),
+                                  sink.getFailed(), sink.getThrottled());
+                System.out.printf("Queue depth: avg=%.1f max=%d%n", (double) sumQueue / samples, maxQueue);
+                printLatency("Enqueue latency", enqueueLatency);
+                printLatency("Delivery latency", deliveryLatency);
+            }
+        } finally {
+            for (SmtpSink sink : sinks) sink.close();
+        }
+    }
+
+    /** Counters of all the SMTP sinks */
+    private static class SinkTotals {
+
+        private final List<SmtpSink> sinks;
+
+        SinkTotals(List<SmtpSink> sinks) {
+            this.sinks = sinks;
+        }
+
+        long getAccepted() {
+            return sinks.stream().mapToLong(SmtpSink::getAccepted).sum();
+        }
+        long getFailed() {
+            return sinks.stream().mapToLong(SmtpSink::getFailed).sum();
+        }
+        long getThrottled() {
+            return sinks.stream().mapToLong(SmtpSink::getThrottled).sum();
+        }
+    }
+
+    private static void printLatency(String name, long[] nanos) {
+        long[] values = Arrays.stream(nanos).filter(n -> n >= 0).sorted().toArray();
+        if (values.length == 0) {
+            System.out.printf("%s: no samples%n", name);
+            return;
+        }
+        System.out.printf("%s: p50=%.2fms p99=%.2fms max=%.2fms (%d samples)%n", name,
+                          percentile(values, 0.50) / 1e6, percentile(values, 0.99) / 1e6,
+                          values[values.length - 1] / 1e6, values.length);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+}
@@ -0,0 +1,69 @@
+package ar.com.grayshirts.commons.spring.mail;
+
+import ar.com.grayshirts.commons.spring.BenchmarkConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.io.ByteArrayResource;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmarks {@link MailService#send(String, String, String, String, Map, Map)}.
+ * With <code>enable=false</code> only the template is rendered, with
+ * <code>enable=true</code> the MIME message is also built and serialized
+ * by a {@link DiscardingMailSender}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MailServiceBenchmark {
+
+    @Param({"false", "true"})
+    private String enable;
+
+    @Param({"0", "65536"})
+    private int attachmentSize;
+
+    private AnnotationConfigApplicationContext context;
+    private MailService mailService;
+    private Map<String, Object> templateContext;
+    private Map<String, Object> attachments;
+
+    @Setup
+    public void setup() {
+        context = BenchmarkConfiguration.createContext(Collections.singletonMap("spring.mail.enable", enable));
+        mailService = context.getBean(MailService.class);
+        templateContext = BenchmarkConfiguration.tableContext(10);
+        if (attachmentSize > 0) {
+            attachments = new HashMap<>();
+            attachments.put("report.bin", new ByteArrayResource(new byte[attachmentSize]));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void send() {
+        mailService.send("welcome", "base", "Welcome", "john@example.com", templateContext, attachments);
+    }
+}
@@ -0,0 +1,220 @@
+package ar.com.grayshirts.commons.spring.mail;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * In-process SMTP server stand-in, that accepts the messages and discards
+ * or records them.<br/>
+ * It supports only the commands used by JavaMail without authentication or TLS,
+ * and can simulate a slow relay ({@link #setLatencyMillis(long)}), a relay
+ * with rate limits ({@link #setMaxMessagesPerSecond(int)}) and delivery
+ * failures ({@link #setFailureRate(double)}).
+ */
+public class SmtpSink implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SmtpSink.class);
+
+    /**
+     * Callback notified with the raw content of each accepted message.
+     */
+    public interface MessageListener {
+        void onMessage(long receivedNanos, byte[] message);
+    }
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "smtp-sink");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile long latencyMillis;
+    private volatile int maxMessagesPerSecond;
+    private volatile double failureRate;
+    private volatile boolean record;
+    private volatile MessageListener listener;
+
+    private final Queue<byte[]> messages = new ConcurrentLinkedQueue<>();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+
+    private long windowStart;
+    private int windowCount;
+
+    /**
+     * Starts listening on `port` of the loopback interface, use <code>0</code>
+     * for a random free port.
+     */
+    public SmtpSink(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "smtp-sink-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.execute(() -> handle(socket));
+            } catch (SocketException e) {
+                // Closed
+            } catch (IOException e) {
+                log.warn("Error accepting SMTP connection.", e);
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.ISO_8859_1));
+            OutputStream out = s.getOutputStream();
+            reply(out, "220 localhost SMTP sink");
+            String line;
+            while ((line = in.readLine()) != null) {
+                String command = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line.toUpperCase();
+                switch (command) {
+                    case "EHLO":
+                        reply(out, "250-localhost\r\n250-8BITMIME\r\n250 SIZE");
+                        break;
+                    case "HELO":
+                    case "RCPT":
+                    case "RSET":
+                    case "NOOP":
+                        reply(out, "250 OK");
+                        break;
+                    case "MAIL":
+                        if (tryAcquire()) {
+                            reply(out, "250 OK");
+                        } else {
+                            throttled.incrementAndGet();
+                            reply(out, "451 4.7.1 Rate limit exceeded");
+                        }
+                        break;
+                    case "DATA":
+                        reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                        byte[] message = readData(in);
+                        if (latencyMillis > 0) Thread.sleep(latencyMillis);
+                        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+                            failed.incrementAndGet();
+                            reply(out, "554 5.0.0 Transaction failed");
+                        } else {
+                            if (record) messages.add(message);
+                            MessageListener l = listener;
+                            if (l != null) l.onMessage(System.nanoTime(), message);
+                            accepted.incrementAndGet();
+                            reply(out, "250 OK");
+                        }
+                        break;
+                    case "QUIT":
+                        reply(out, "221 Bye");
+                        return;
+                    default:
+                        reply(out, "502 Command not implemented");
+                }
+            }
+        } catch (IOException e) {
+            log.debug("SMTP connection closed.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private byte[] readData(BufferedReader in) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        String line;
+        while ((line = in.readLine()) != null && !".".equals(line)) {
+            if (line.startsWith("..")) line = line.substring(1);
+            data.write(line.getBytes(StandardCharsets.ISO_8859_1));
+            data.write('\r');
+            data.write('\n');
+        }
+        return data.toByteArray();
+    }
+
+    private void reply(OutputStream out, String response) throws IOException {
+        out.write((response + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    private synchronized boolean tryAcquire() {
+        if (maxMessagesPerSecond <= 0) return true;
+        long now = System.nanoTime();
+        if (now - windowStart >= 1_000_000_000L) {
+            windowStart = now;
+            windowCount = 0;
+        }
+        return ++windowCount <= maxMessagesPerSecond;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        connections.shutdownNow();
+    }
+
+    /**
+     * Returns and removes the recorded messages.
+     */
+    public List<byte[]> drainMessages() {
+        List<byte[]> list = new ArrayList<>();
+        byte[] message;
+        while ((message = messages.poll()) != null) list.add(message);
+        return list;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+    public long getAccepted() {
+        return accepted.get();
+    }
+    public long getFailed() {
+        return failed.get();
+    }
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    /** Time to wait before answering each message */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+    /** Messages per second accepted, the rest are rejected with a 451 reply. <code>0</code> means no limit */
+    public void setMaxMessagesPerSecond(int maxMessagesPerSecond) {
+        this.maxMessagesPerSecond = maxMessagesPerSecond;
+    }
+    /** Probability between 0 and 1 of rejecting a message with a 554 reply */
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+    /** Keeps the accepted messages, to get them with {@link #drainMessages()} */
+    public void setRecord(boolean record) {
+        this.record = record;
+    }
+    public void setListener(MessageListener listener) {
+        this.listener = listener;
+    }
+}
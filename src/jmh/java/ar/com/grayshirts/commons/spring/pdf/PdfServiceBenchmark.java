@@ -0,0 +1,67 @@
+package ar.com.grayshirts.commons.spring.pdf;
+
+import ar.com.grayshirts.commons.spring.BenchmarkConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmarks {@link PdfService#render(String, String, String, FileOutputStream, Map)}
+ * for a 1-page and a 100-page document (about 40 table rows per A4 page).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PdfServiceBenchmark {
+
+    private static final int ROWS_PER_PAGE = 40;
+
+    @Param({"1", "100"})
+    private int pages;
+
+    private AnnotationConfigApplicationContext context;
+    private PdfService pdfService;
+    private Map<String, Object> templateContext;
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        context = BenchmarkConfiguration.createContext(null);
+        pdfService = context.getBean(PdfService.class);
+        templateContext = BenchmarkConfiguration.tableContext(pages * ROWS_PER_PAGE);
+        file = File.createTempFile("benchmark", ".pdf");
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public long render() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            pdfService.render("table", "table", "Benchmark", out, templateContext);
+        }
+        return file.length();
+    }
+}
@@ -0,0 +1,56 @@
+package ar.com.grayshirts.commons.spring.template;
+
+import ar.com.grayshirts.commons.spring.BenchmarkConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmarks {@link TemplateService#render(String, String, Map)} with a small
+ * and a large context.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateServiceBenchmark {
+
+    @Param({"10", "10000"})
+    private int rows;
+
+    private AnnotationConfigApplicationContext context;
+    private TemplateService templateService;
+    private Map<String, Object> templateContext;
+
+    @Setup
+    public void setup() {
+        context = BenchmarkConfiguration.createContext(null);
+        templateService = context.getBean(TemplateService.class);
+        templateContext = BenchmarkConfiguration.tableContext(rows);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public String render() {
+        return templateService.render("reports/table", "table", templateContext);
+    }
+}
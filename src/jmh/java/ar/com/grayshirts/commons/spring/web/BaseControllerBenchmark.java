@@ -0,0 +1,101 @@
+package ar.com.grayshirts.commons.spring.web;
+
+import ar.com.grayshirts.commons.type.RestResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.web.bind.MethodArgumentNotValidException;
+import org.springframework.web.bind.ServletRequestBindingException;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmarks the exception handlers of {@link BaseController}. The handler
+ * logging is turned off in <code>logback-test.xml</code>, so only the
+ * response building is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BaseControllerBenchmark {
+
+    private BaseController controller;
+    private MockHttpServletRequest request;
+    private RuntimeException exception;
+    private IllegalArgumentException illegalArgumentException;
+    private ServletRequestBindingException bindingException;
+    private MethodArgumentNotValidException notValidException;
+
+    @Setup
+    public void setup() throws NoSuchMethodException {
+        controller = new BaseController() {};
+        request = new MockHttpServletRequest("POST", "/api/users");
+        exception = new RuntimeException("Unexpected error");
+        illegalArgumentException = new IllegalArgumentException("Invalid argument");
+        bindingException = new ServletRequestBindingException("Missing parameter \"id\"");
+
+        User user = new User();
+        BeanPropertyBindingResult bindingResult = new BeanPropertyBindingResult(user, "user");
+        bindingResult.rejectValue("name", "NotNull", "may not be null");
+        bindingResult.rejectValue("email", "Email", "not a well-formed email address");
+        MethodParameter parameter = new MethodParameter(
+            BaseControllerBenchmark.class.getDeclaredMethod("save", User.class), 0);
+        notValidException = new MethodArgumentNotValidException(parameter, bindingResult);
+    }
+
+    @Benchmark
+    public ResponseEntity<RestResponse> handleException() {
+        return controller.handleException(request, exception);
+    }
+
+    @Benchmark
+    public ResponseEntity<RestResponse> handleIllegalArgumentException() {
+        return controller.handleIllegalArgumentException(request, illegalArgumentException);
+    }
+
+    @Benchmark
+    public ResponseEntity<RestResponse> handleMissingParameter() {
+        return controller.handleMissingParameter(request, bindingException);
+    }
+
+    @Benchmark
+    public ResponseEntity<RestResponse> handleArgumentNotValidException() {
+        return controller.handleArgumentNotValidException(request, notValidException);
+    }
+
+    @SuppressWarnings("unused")
+    private void save(User user) {
+    }
+
+    public static class User {
+        private String name;
+        private String email;
+
+        public String getName() {
+            return name;
+        }
+        public void setName(String name) {
+            this.name = name;
+        }
+        public String getEmail() {
+            return email;
+        }
+        public void setEmail(String email) {
+            this.email = email;
+        }
+    }
+}
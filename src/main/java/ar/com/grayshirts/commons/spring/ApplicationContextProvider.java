@@ -3,15 +3,51 @@ package ar.com.grayshirts.commons.spring;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.core.env.Environment;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Gets static access to all bean created by the Spring context, the Spring environment
  * and the configuration values.
+ * <p>
+ * Singleton beans and resolved properties are cached after the first lookup, so
+ * these methods can be called from loops or per-request code paths. The caches are
+ * discarded when the context is refreshed ({@link ContextRefreshedEvent}) or closed
+ * ({@link ContextClosedEvent}), and the property cache also when a
+ * {@link PropertiesRefreshedEvent} is published or {@link #refreshProperties()} is called.
+ * Properties with the prefix <code>random.</code> aren't cached, each lookup gets a new value.
+ * <p>
+ * Use {@link #bind(String, Class, Object)} to get a typed {@link PropertyHandle}
+ * for values read in hot paths.
  */
-public class ApplicationContextProvider implements ApplicationContextAware {
+public class ApplicationContextProvider implements ApplicationContextAware, ApplicationListener<ApplicationEvent> {
 
-	private static ApplicationContext context;
+	/** Marks a property that isn't defined, {@link ConcurrentHashMap} doesn't allow null values */
+	private static final String NULL_PROPERTY = new String();
+
+	private static volatile ApplicationContext context;
+
+	/** Dynamic property source of Spring Boot, a new value each lookup */
+	private static final String RANDOM_PREFIX = "random.";
+
+	/*
+	 * The refreshes replace the caches instead of clearing them, so a lookup that
+	 * read the old value before the refresh stores it in the discarded cache
+	 */
+	private static volatile Map<String, Object> beansByName = new ConcurrentHashMap<>();
+	private static volatile Map<Class<?>, Object> beansByType = new ConcurrentHashMap<>();
+	private static volatile Map<String, String> properties = new ConcurrentHashMap<>();
+	/** Set while the context is closing, beans aren't cached until it's refreshed again */
+	private static volatile boolean closed;
+	/** Bound handles by key, type and default value */
+	private static final Map<List<Object>, PropertyHandle<?>> handles = new ConcurrentHashMap<>();
 
 	public static ApplicationContext getApplicationContext() {
 		return context;
@@ -20,14 +56,57 @@ public class ApplicationContextProvider implements ApplicationContextAware {
 	@Override
 	public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
 		context = applicationContext;
+		closed = false;
+		refreshBeans();
+		refreshProperties();
+	}
+
+	@Override
+	public void onApplicationEvent(ApplicationEvent event) {
+		if (event instanceof ContextRefreshedEvent) {
+			closed = false;
+			refreshBeans();
+			refreshProperties();
+		} else if (event instanceof ContextClosedEvent) {
+			// Events of child contexts are published in this context too
+			if (((ContextClosedEvent) event).getApplicationContext() == context) {
+				closed = true;
+				refreshBeans();
+				properties = new ConcurrentHashMap<>();
+			}
+		} else if (event instanceof PropertiesRefreshedEvent) {
+			refreshProperties();
+		}
 	}
 
 	public static Object getBean(String id) {
-		return context.getBean(id);
+		Map<String, Object> cache = beansByName;
+		Object bean = cache.get(id);
+		if (bean == null) {
+			bean = context.getBean(id);
+			if (!closed && context.isSingleton(id)) {
+				cache.put(id, bean);
+			}
+		}
+		return bean;
 	}
 
 	public static <T> T getBean(Class<T> clazz) throws BeansException {
-		return context.getBean(clazz);
+		Map<Class<?>, Object> cache = beansByType;
+		Object bean = cache.get(clazz);
+		if (bean == null) {
+			String[] names = context.getBeanNamesForType(clazz);
+			boolean singletons = names.length > 0;
+			for (String name : names) {
+				singletons &= context.isSingleton(name);
+			}
+			// A single candidate is resolved by name, several by the type to apply @Primary
+			bean = names.length == 1 ? context.getBean(names[0]) : context.getBean(clazz);
+			if (!closed && singletons) {
+				cache.put(clazz, bean);
+			}
+		}
+		return clazz.cast(bean);
 	}
 
 	public static Environment getEnvironment() {
@@ -35,10 +114,99 @@ public class ApplicationContextProvider implements ApplicationContextAware {
 	}
 
 	public static String getProperty(String key) {
-		return context.getEnvironment().getProperty(key);
+		if (key.startsWith(RANDOM_PREFIX)) {
+			return context.getEnvironment().getProperty(key);
+		}
+		Map<String, String> cache = properties;
+		String value = cache.get(key);
+		if (value == null) {
+			value = context.getEnvironment().getProperty(key);
+			if (value == null) value = NULL_PROPERTY;
+			cache.put(key, value);
+		}
+		return value == NULL_PROPERTY ? null : value;
 	}
 
 	public static String getProperty(String key, String defaultValue) {
-		return context.getEnvironment().getProperty(key, defaultValue);
+		String value = getProperty(key);
+		return value != null ? value : defaultValue;
+	}
+
+	/**
+	 * Returns a handle with the value of the property `key` already converted
+	 * to `type`. The handle is updated when the properties are refreshed.
+	 * If the context isn't available yet, the handle holds `defaultValue` until
+	 * the context is set.
+	 * <p>
+	 * Calls with the same key, type and default value return the same handle,
+	 * so its listeners are shared. Each call must be paired with an
+	 * {@link #unbind(PropertyHandle)} when the handle isn't needed anymore.
+	 *
+	 * @param key the property name
+	 * @param type the type of the value, any type supported by the Spring conversion service,
+	 *             or {@link java.time.Duration}
+	 * @param defaultValue the value used when the property isn't defined
+	 * @throws IllegalArgumentException if the current value cannot be converted to `type`
+	 */
+	public static <T> PropertyHandle<T> bind(String key, Class<T> type, T defaultValue) {
+		PropertyHandle<?> handle = handles.compute(Arrays.asList(key, type, defaultValue), (k, bound) -> {
+			if (bound == null) {
+				PropertyHandle<T> newHandle = new PropertyHandle<>(key, type, defaultValue);
+				ApplicationContext ctx = context;
+				if (ctx != null) {
+					try {
+						newHandle.init(ctx.getEnvironment());
+					} catch (RuntimeException e) {
+						throw new IllegalArgumentException(
+							"Error converting property \"" + key + "\" to " + type.getSimpleName() + ".", e);
+					}
+				}
+				bound = newHandle;
+			}
+			bound.bindings++;
+			return bound;
+		});
+		@SuppressWarnings("unchecked")
+		PropertyHandle<T> typedHandle = (PropertyHandle<T>) handle;
+		return typedHandle;
+	}
+
+	public static <T> PropertyHandle<T> bind(String key, Class<T> type) {
+		return bind(key, type, null);
+	}
+
+	/**
+	 * Releases a handle returned by {@link #bind(String, Class, Object)}. The handle stops
+	 * being updated when the last caller that bound it releases it, so remove your
+	 * listeners from the handle too, other callers may still be using it.
+	 */
+	public static void unbind(PropertyHandle<?> handle) {
+		List<Object> handleKey = Arrays.asList(handle.getKey(), handle.getType(), handle.getDefaultValue());
+		handles.computeIfPresent(handleKey, (k, bound) -> bound != handle || --bound.bindings > 0 ? bound : null);
+	}
+
+	/**
+	 * Discards the cached beans, the next lookups are resolved again
+	 * against the application context.
+	 */
+	public static void refreshBeans() {
+		beansByName = new ConcurrentHashMap<>();
+		beansByType = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Discards the cached properties, the next lookups are resolved again
+	 * against the Spring environment. Call it after changing a property source
+	 * at runtime, or publish a {@link PropertiesRefreshedEvent} instead.
+	 * The bound {@link PropertyHandle}s are converted again, and their listeners
+	 * notified if the values changed.
+	 */
+	public static void refreshProperties() {
+		properties = new ConcurrentHashMap<>();
+		ApplicationContext ctx = context;
+		Environment environment = ctx != null ? ctx.getEnvironment() : null;
+		for (PropertyHandle<?> handle : handles.values()) {
+			handle.refresh(environment);
+		}
 	}
 }
@@ -0,0 +1,15 @@
+package ar.com.grayshirts.commons.spring;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Event to publish after the property sources of the Spring environment
+ * change at runtime, so {@link ApplicationContextProvider} discards the
+ * properties it has cached.
+ */
+public class PropertiesRefreshedEvent extends ApplicationEvent {
+
+	public PropertiesRefreshedEvent(Object source) {
+		super(source);
+	}
+}
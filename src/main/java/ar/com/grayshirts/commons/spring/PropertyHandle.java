@@ -0,0 +1,119 @@
+package ar.com.grayshirts.commons.spring;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+
+/**
+ * Typed access to a configuration value, created with
+ * {@link ApplicationContextProvider#bind(String, Class, Object)}.<br/>
+ * The value is converted once when the handle is bound, and again only when
+ * the Spring environment changes, so {@link #get()} is just a volatile read.
+ * <p>
+ * Besides the types supported by the Spring conversion service, {@link Duration}
+ * values are accepted in ISO-8601 format (eg. <code>PT30S</code>) or as milliseconds.
+ */
+public class PropertyHandle<T> {
+
+	private static final Logger log = LoggerFactory.getLogger(PropertyHandle.class);
+
+	/**
+	 * Callback notified when the value of a {@link PropertyHandle} changes.
+	 */
+	public interface Listener<T> {
+		void onChange(T oldValue, T newValue);
+	}
+
+	private final String key;
+	private final Class<T> type;
+	private final T defaultValue;
+	private final List<Listener<T>> listeners = new CopyOnWriteArrayList<>();
+
+	private volatile T value;
+
+	/** Callers that bound the handle, guarded by {@link ApplicationContextProvider} */
+	int bindings;
+
+	PropertyHandle(String key, Class<T> type, T defaultValue) {
+		this.key = key;
+		this.type = type;
+		this.defaultValue = defaultValue;
+		this.value = defaultValue;
+	}
+
+	/**
+	 * Returns the current value, or the default value if the property isn't defined.
+	 */
+	public T get() {
+		return value;
+	}
+
+	public PropertyHandle<T> addListener(Listener<T> listener) {
+		listeners.add(listener);
+		return this;
+	}
+
+	public void removeListener(Listener<T> listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Converts again the value from the environment, and notifies
+	 * the listeners if it changed. If the new value cannot be
+	 * converted the current value is kept. Errors thrown by the
+	 * listeners are logged, and don't stop the other listeners.
+	 */
+	synchronized void refresh(Environment environment) {
+		T newValue;
+		try {
+			newValue = convert(environment);
+		} catch (RuntimeException e) {
+			log.error("Error converting property \"{}\" to {}, keeping the value \"{}\".",
+			          key, type.getSimpleName(), value, e);
+			return;
+		}
+		T oldValue = value;
+		value = newValue;
+		if (!Objects.equals(oldValue, newValue)) {
+			for (Listener<T> listener : listeners) {
+				try {
+					listener.onChange(oldValue, newValue);
+				} catch (RuntimeException e) {
+					log.error("Error notifying the change of property \"{}\" to listener {}.", key, listener, e);
+				}
+			}
+		}
+	}
+
+	void init(Environment environment) {
+		value = convert(environment);
+	}
+
+	T convert(Environment environment) {
+		if (environment == null) return defaultValue;
+		if (type == Duration.class) {
+			String raw = environment.getProperty(key);
+			if (raw == null) return defaultValue;
+			raw = raw.trim();
+			return type.cast(!raw.isEmpty() && raw.chars().allMatch(Character::isDigit)
+			                 ? Duration.ofMillis(Long.parseLong(raw)) : Duration.parse(raw));
+		}
+		T converted = environment.getProperty(key, type);
+		return converted != null ? converted : defaultValue;
+	}
+
+	public String getKey() {
+		return key;
+	}
+	public Class<T> getType() {
+		return type;
+	}
+	public T getDefaultValue() {
+		return defaultValue;
+	}
+}
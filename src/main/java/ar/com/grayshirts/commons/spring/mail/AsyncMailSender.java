@@ -1,18 +1,31 @@
 package ar.com.grayshirts.commons.spring.mail;
 
+import ar.com.grayshirts.commons.spring.metrics.Counter;
+import ar.com.grayshirts.commons.spring.metrics.Histogram;
+import ar.com.grayshirts.commons.spring.metrics.Instrumentation;
+import ar.com.grayshirts.commons.spring.metrics.NoopInstrumentation;
+import ar.com.grayshirts.commons.spring.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.core.task.TaskExecutor;
 import org.springframework.mail.MailException;
+import org.springframework.mail.MailPreparationException;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.JavaMailSenderImpl;
 import org.springframework.mail.javamail.MimeMessagePreparator;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import javax.activation.FileTypeMap;
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
 import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
 import java.io.InputStream;
 import java.util.Properties;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import static ar.com.grayshirts.commons.format.StringUtils.maskEmail;
@@ -23,8 +36,18 @@ import static ar.com.grayshirts.commons.format.StringUtils.maskEmail;
  * that sends emails async, creating a thread on each submit.<br/>
  * the object <i>taskExecutor -> threadGroup</i> manages the exceptions
  * {@link org.springframework.mail.MailException MailException}.
+ * <p>
+ * If a {@link MailRelayRouter} is set, the e-mails are distributed among
+ * its relays instead of being sent through the <code>mailSender</code>.
+ * <p>
+ * If the <code>taskExecutor</code> is a {@link MailLaneExecutor}, the e-mails can be
+ * sent with a {@link MailPriority}, the methods without priority use {@link MailPriority#NORMAL}.
+ * <p>
+ * {@link MimeMessage}s are serialized to their RFC 822 bytes when they are enqueued,
+ * so the queue doesn't hold the whole MIME object graph (session, parts, attachment
+ * data sources), and the bytes are written to the transport as they are.
  */
-public class AsyncMailSender implements JavaMailSender {
+public class AsyncMailSender implements JavaMailSender, DisposableBean {
 
 	private static final Logger log = LoggerFactory.getLogger(AsyncMailSender.class);
 
@@ -32,6 +55,13 @@ public class AsyncMailSender implements JavaMailSender {
 
 	private TaskExecutor taskExecutor;
 
+	private MailRelayRouter relayRouter;
+
+	private Instrumentation instrumentation = NoopInstrumentation.INSTANCE;
+	private Timer sendTimer = instrumentation.timer("mail.send");
+	private Counter sendFailures = instrumentation.counter("mail.send.failures");
+	private Histogram sizeHistogram = instrumentation.histogram("mail.size");
+
 	public AsyncMailSender() {
 		mailSender = new JavaMailSenderImpl();
 	}
@@ -41,6 +71,10 @@ public class AsyncMailSender implements JavaMailSender {
 		taskExecutor.execute(new AsyncMailTask(simpleMailMessage));
 	}
 
+	public void send(SimpleMailMessage simpleMailMessage, MailPriority priority) throws MailException {
+		execute(new AsyncMailTask(simpleMailMessage), priority);
+	}
+
 	@Override public void send(SimpleMailMessage[] simpleMailMessages)
 			throws MailException {
 		taskExecutor.execute(new AsyncMailTask(simpleMailMessages));
@@ -51,6 +85,10 @@ public class AsyncMailSender implements JavaMailSender {
 
 	}
 
+	public void send(MimeMessage mimeMessage, MailPriority priority) throws MailException {
+		execute(new AsyncMailTask(mimeMessage), priority);
+	}
+
 	@Override public void send(MimeMessage[] mimeMessages) throws MailException {
 		taskExecutor.execute(new AsyncMailTask(mimeMessages));
 	}
@@ -60,11 +98,39 @@ public class AsyncMailSender implements JavaMailSender {
 		taskExecutor.execute(new AsyncMailTask(mimeMessagePreparator));
 	}
 
+	public void send(MimeMessagePreparator mimeMessagePreparator, MailPriority priority)
+			throws MailException {
+		execute(new AsyncMailTask(mimeMessagePreparator), priority);
+	}
+
 	@Override public void send(MimeMessagePreparator[] mimeMessagesPreparator)
 			throws MailException {
 		taskExecutor.execute(new AsyncMailTask(mimeMessagesPreparator));
 	}
 
+	private void execute(AsyncMailTask task, MailPriority priority) {
+		if (taskExecutor instanceof MailLaneExecutor) {
+			((MailLaneExecutor) taskExecutor).execute(task, priority);
+		} else {
+			taskExecutor.execute(task);
+		}
+	}
+
+	/**
+	 * Sends the e-mails already enqueued, waiting up to one minute, and stops the
+	 * executor threads before the context is closed. The executor isn't a bean,
+	 * so nothing else shuts it down.
+	 */
+	@Override public void destroy() throws Exception {
+		if (taskExecutor instanceof MailLaneExecutor) {
+			((MailLaneExecutor) taskExecutor).shutdown(60000);
+		} else if (taskExecutor instanceof ThreadPoolTaskExecutor) {
+			ThreadPoolTaskExecutor executor = (ThreadPoolTaskExecutor) taskExecutor;
+			executor.setAwaitTerminationSeconds(60);
+			executor.shutdown();
+		}
+	}
+
 	@Override public MimeMessage createMimeMessage() {
 		return mailSender.createMimeMessage();
 	}
@@ -78,7 +144,7 @@ public class AsyncMailSender implements JavaMailSender {
 	private class AsyncMailTask implements Runnable {
 
 		private SimpleMailMessage[] messages = null;
-		private MimeMessage[] mimeMessages = null;
+		private byte[][] mimeMessages = null;
 		private MimeMessagePreparator[] mimeMessagesPreparator = null;
 
 		private AsyncMailTask(SimpleMailMessage message) {
@@ -89,10 +155,14 @@ public class AsyncMailSender implements JavaMailSender {
 		}
 
 		private AsyncMailTask(MimeMessage message) {
-			this.mimeMessages = new MimeMessage[] {message};
+			this(new MimeMessage[] {message});
 		}
 		private AsyncMailTask(MimeMessage[] messages) {
-			this.mimeMessages = messages;
+			this.mimeMessages = new byte[messages.length][];
+			for (int i = 0; i < messages.length; i++) {
+				mimeMessages[i] = SerializedMimeMessage.serialize(messages[i]);
+				sizeHistogram.record(mimeMessages[i].length);
+			}
 		}
 
 		private AsyncMailTask(MimeMessagePreparator message) {
@@ -105,13 +175,22 @@ public class AsyncMailSender implements JavaMailSender {
 		@Override public void run() {
             if(messages!=null) {
                 for(SimpleMailMessage m : messages) {
-                    mailSender.send(m);
+                    String to = m.getTo()!=null && m.getTo().length>0 ? m.getTo()[0] : null;
+                    deliver(m.getFrom(), to, sender -> sender.send(m));
                     log.debug("E-mail sent to {}",
                               Stream.of(m.getTo()).map(s->maskEmail(s)).collect(Collectors.joining(", ")));
                 }
             } else if(mimeMessages!=null) {
-                for(MimeMessage m : mimeMessages) {
-                    mailSender.send(m);
+                for(int i=0; i<mimeMessages.length; i++) {
+                    MimeMessage m;
+                    try {
+                        m = new SerializedMimeMessage(mailSender.getSession(), mimeMessages[i]);
+                    } catch (MessagingException e) {
+                        throw new MailPreparationException("Error parsing the enqueued e-mail.", e);
+                    }
+                    // Release the bytes of the e-mails already sent
+                    mimeMessages[i] = null;
+                    deliver(m);
                     try {
                         log.debug("E-mail sent to {}",
                                   Stream.of(m.getHeader("To")).map(s->maskEmail(s)).collect(Collectors.joining(", ")));
@@ -121,11 +200,62 @@ public class AsyncMailSender implements JavaMailSender {
                 }
             } else {
                 for(MimeMessagePreparator m : mimeMessagesPreparator) {
-                    mailSender.send(m);
+                    if (relayRouter == null) {
+                        deliver(null, null, sender -> sender.send(m));
+                    } else {
+                        // The recipients are needed to choose the relay
+                        MimeMessage mimeMessage = mailSender.createMimeMessage();
+                        try {
+                            m.prepare(mimeMessage);
+                        } catch (Exception e) {
+                            throw new MailPreparationException(e);
+                        }
+                        deliver(mimeMessage);
+                    }
                     log.debug("E-mail sent.");
                 }
             }
 		}
+
+		private void deliver(MimeMessage m) {
+			deliver(firstAddress(() -> m.getFrom()),
+			        firstAddress(() -> m.getRecipients(Message.RecipientType.TO)),
+			        sender -> sender.send(m));
+		}
+
+		/**
+		 * Sends the e-mail through the relay router if there is one, or the mail sender otherwise.
+		 */
+		private void deliver(String from, String to, Consumer<JavaMailSender> send) {
+			long start = System.nanoTime();
+			try {
+				if (relayRouter != null) {
+					relayRouter.send(from, to, send);
+				} else {
+					send.accept(mailSender);
+				}
+			} catch (RuntimeException e) {
+				sendFailures.increment();
+				throw e;
+			}
+			sendTimer.recordSince(start);
+		}
+	}
+
+	private interface AddressesSupplier {
+		Address[] get() throws MessagingException;
+	}
+
+	private static String firstAddress(AddressesSupplier addresses) {
+		try {
+			Address[] list = addresses.get();
+			if (list != null && list.length > 0 && list[0] instanceof InternetAddress) {
+				return ((InternetAddress) list[0]).getAddress();
+			}
+		} catch (MessagingException e) {
+			log.debug("Error reading e-mail addresses to route the e-mail.", e);
+		}
+		return null;
 	}
 
 	/**
@@ -148,6 +278,35 @@ public class AsyncMailSender implements JavaMailSender {
 	}
 
 
+	/**
+	 * Number of e-mail tasks waiting in the executor queue, or 0 if the executor
+	 * isn't a {@link MailLaneExecutor} or a {@link ThreadPoolTaskExecutor}.
+	 */
+	public int getQueueSize() {
+		if (taskExecutor instanceof MailLaneExecutor) {
+			return ((MailLaneExecutor) taskExecutor).getQueueSize();
+		}
+		if (taskExecutor instanceof ThreadPoolTaskExecutor) {
+			return ((ThreadPoolTaskExecutor) taskExecutor).getThreadPoolExecutor().getQueue().size();
+		}
+		return 0;
+	}
+
+	/**
+	 * Number of threads sending e-mails, or 0 if the executor
+	 * isn't a {@link MailLaneExecutor} or a {@link ThreadPoolTaskExecutor}.
+	 */
+	public int getActiveCount() {
+		if (taskExecutor instanceof MailLaneExecutor) {
+			return ((MailLaneExecutor) taskExecutor).getActiveCount();
+		}
+		if (taskExecutor instanceof ThreadPoolTaskExecutor) {
+			return ((ThreadPoolTaskExecutor) taskExecutor).getActiveCount();
+		}
+		return 0;
+	}
+
+
 	/* Getters and Setters */
 
 	public void setMailSender(JavaMailSenderImpl mailSender) {
@@ -162,6 +321,28 @@ public class AsyncMailSender implements JavaMailSender {
 	public void setTaskExecutor(TaskExecutor taskExecutor) {
 		this.taskExecutor = taskExecutor;
 	}
+	public MailRelayRouter getRelayRouter() {
+		return relayRouter;
+	}
+	public void setRelayRouter(MailRelayRouter relayRouter) {
+		this.relayRouter = relayRouter;
+	}
+	public Instrumentation getInstrumentation() {
+		return instrumentation;
+	}
+	/**
+	 * Sets where to publish the send latency and failures, the size of the enqueued
+	 * {@link MimeMessage}s (<code>mail.size</code>), and registers
+	 * the gauges <code>mail.queue.size</code> and <code>mail.executor.active</code>.
+	 */
+	public void setInstrumentation(Instrumentation instrumentation) {
+		this.instrumentation = instrumentation;
+		this.sendTimer = instrumentation.timer("mail.send");
+		this.sendFailures = instrumentation.counter("mail.send.failures");
+		this.sizeHistogram = instrumentation.histogram("mail.size");
+		instrumentation.gauge("mail.queue.size", this::getQueueSize);
+		instrumentation.gauge("mail.executor.active", this::getActiveCount);
+	}
 	public void setSession(Session session) {
 		mailSender.setSession(session);
 	}
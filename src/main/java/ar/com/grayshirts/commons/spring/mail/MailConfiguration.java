@@ -1,14 +1,21 @@
 package ar.com.grayshirts.commons.spring.mail;
 
+import ar.com.grayshirts.commons.spring.metrics.Instrumentation;
+import ar.com.grayshirts.commons.spring.metrics.NoopInstrumentation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import static org.apache.commons.lang3.StringUtils.isBlank;
 
 
 @Configuration
@@ -28,6 +35,30 @@ public class MailConfiguration {
     @Value("${spring.mail.maxPoolSize:2}") private int maxPoolSize;
     @Value("${spring.mail.queueCapacity:1000}") private int queueCapacity;
 
+    /**
+     * Use a {@link MailLaneExecutor} with a queue per {@link MailPriority} instead of a single FIFO queue.
+     * Its workers are fixed (maxPoolSize shared plus the reserved ones) and each lane has its own capacity
+     */
+    @Value("${spring.mail.lanes.enable:false}") private boolean lanesEnable;
+    @Value("${spring.mail.lanes.reservedWorkers:1}") private int reservedWorkers;
+    @Value("${spring.mail.lanes.transactional.capacity:${spring.mail.queueCapacity:1000}}") private int transactionalCapacity;
+    @Value("${spring.mail.lanes.normal.capacity:${spring.mail.queueCapacity:1000}}") private int normalCapacity;
+    @Value("${spring.mail.lanes.bulk.capacity:${spring.mail.queueCapacity:1000}}") private int bulkCapacity;
+    @Value("${spring.mail.lanes.transactional.weight:8}") private int transactionalWeight;
+    @Value("${spring.mail.lanes.normal.weight:4}") private int normalWeight;
+    @Value("${spring.mail.lanes.bulk.weight:1}") private int bulkWeight;
+
+    /** Comma separated relays "host[:port][*weight]", if empty only "spring.mail.host" is used */
+    @Value("${spring.mail.relays:}") private String relays;
+    /** Comma separated rules "domain=relay[|relay...]", where relay is the "host[:port]" of a relay */
+    @Value("${spring.mail.recipientRoutes:}") private String recipientRoutes;
+    @Value("${spring.mail.senderRoutes:}") private String senderRoutes;
+    @Value("${spring.mail.relayFailureThreshold:5}") private int relayFailureThreshold;
+    @Value("${spring.mail.relayOpenMillis:30000}") private long relayOpenMillis;
+
+	@Autowired(required = false)
+	private Instrumentation instrumentation = NoopInstrumentation.INSTANCE;
+
 	@Bean
     MailService mailService() {
 	    return new MailService();
@@ -54,15 +85,98 @@ public class MailConfiguration {
 
 		asyncMailSender.setJavaMailProperties(props);
 
-		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-		executor.setCorePoolSize(corePoolSize);
-		executor.setMaxPoolSize(maxPoolSize);
-		executor.setQueueCapacity(queueCapacity);
-		executor.setWaitForTasksToCompleteOnShutdown(true);
-		executor.setThreadGroup(asyncMailSender.new LogErrorThreadGroupHandler());
-		executor.initialize();
-
-		asyncMailSender.setTaskExecutor(executor);
+		if (lanesEnable) {
+			// The shared workers are fixed, so they are sized as the max pool
+			MailLaneExecutor executor = new MailLaneExecutor();
+			executor.setSharedWorkers(maxPoolSize);
+			executor.setReservedWorkers(reservedWorkers);
+			executor.setCapacity(MailPriority.TRANSACTIONAL, transactionalCapacity);
+			executor.setCapacity(MailPriority.NORMAL, normalCapacity);
+			executor.setCapacity(MailPriority.BULK, bulkCapacity);
+			executor.setWeight(MailPriority.TRANSACTIONAL, transactionalWeight);
+			executor.setWeight(MailPriority.NORMAL, normalWeight);
+			executor.setWeight(MailPriority.BULK, bulkWeight);
+			executor.setThreadGroup(asyncMailSender.new LogErrorThreadGroupHandler());
+			executor.setInstrumentation(instrumentation);
+			executor.initialize();
+			asyncMailSender.setTaskExecutor(executor);
+			log.info("Mail lanes enabled: {} shared and {} reserved workers (spring.mail.corePoolSize not used), "
+			         + "capacities transactional={} normal={} bulk={}.", maxPoolSize, reservedWorkers,
+			         transactionalCapacity, normalCapacity, bulkCapacity);
+		} else {
+			ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+			executor.setCorePoolSize(corePoolSize);
+			executor.setMaxPoolSize(maxPoolSize);
+			executor.setQueueCapacity(queueCapacity);
+			executor.setWaitForTasksToCompleteOnShutdown(true);
+			executor.setThreadGroup(asyncMailSender.new LogErrorThreadGroupHandler());
+			executor.initialize();
+			asyncMailSender.setTaskExecutor(executor);
+		}
+		asyncMailSender.setInstrumentation(instrumentation);
+		if (!isBlank(relays)) {
+			asyncMailSender.setRelayRouter(mailRelayRouter(props));
+		}
 		return asyncMailSender;
 	}
+
+	private MailRelayRouter mailRelayRouter(Properties props) {
+		List<MailRelay> relayList = new ArrayList<>();
+		for (String spec : relays.split(",")) {
+			spec = spec.trim();
+			int weight = 1;
+			int weightIndex = spec.indexOf('*');
+			if (weightIndex > 0) {
+				weight = Integer.parseInt(spec.substring(weightIndex + 1).trim());
+				spec = spec.substring(0, weightIndex).trim();
+			}
+			String relayHost = spec;
+			String relayPort = port;
+			int portIndex = spec.indexOf(':');
+			if (portIndex > 0) {
+				relayHost = spec.substring(0, portIndex);
+				relayPort = spec.substring(portIndex + 1);
+			}
+
+			JavaMailSenderImpl sender = new JavaMailSenderImpl();
+			sender.setDefaultEncoding("UTF-8");
+			sender.setUsername(username);
+			sender.setPassword(password);
+			sender.setHost(relayHost);
+			Properties relayProps = new Properties();
+			relayProps.putAll(props);
+			relayProps.put("mail.smtp.host", relayHost);
+			relayProps.put("mail.smtp.port", relayPort);
+			sender.setJavaMailProperties(relayProps);
+
+			MailRelay relay = new MailRelay(spec, sender, weight, relayFailureThreshold, relayOpenMillis);
+			instrumentation.gauge("mail.relay." + spec + ".outstanding", relay::getOutstanding);
+			instrumentation.gauge("mail.relay." + spec + ".failed", relay::getFailed);
+			instrumentation.gauge("mail.relay." + spec + ".circuitOpen", () -> relay.isCircuitOpen() ? 1 : 0);
+			relayList.add(relay);
+		}
+		log.info("Configuring e-mail relays: {}", relayList);
+
+		MailRelayRouter router = new MailRelayRouter(relayList);
+		for (String[] route : parseRoutes(recipientRoutes)) {
+			router.addRecipientRoute(route[0], route[1].split("\\|"));
+		}
+		for (String[] route : parseRoutes(senderRoutes)) {
+			router.addSenderRoute(route[0], route[1].split("\\|"));
+		}
+		return router;
+	}
+
+	private List<String[]> parseRoutes(String routes) {
+		List<String[]> list = new ArrayList<>();
+		if (isBlank(routes)) return list;
+		for (String route : routes.split(",")) {
+			String[] parts = route.trim().split("=", 2);
+			if (parts.length != 2) {
+				throw new IllegalArgumentException("Invalid e-mail route \"" + route + "\", expected \"domain=relay[|relay...]\".");
+			}
+			list.add(new String[] { parts[0].trim(), parts[1].trim() });
+		}
+		return list;
+	}
 }
@@ -0,0 +1,252 @@
+package ar.com.grayshirts.commons.spring.mail;
+
+import ar.com.grayshirts.commons.spring.metrics.Instrumentation;
+import ar.com.grayshirts.commons.spring.metrics.NoopInstrumentation;
+import ar.com.grayshirts.commons.spring.metrics.Timer;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * {@link TaskExecutor} for e-mails with a bounded queue per {@link MailPriority} lane,
+ * so a mass campaign doesn't delay the e-mails users are waiting for.
+ * <p>
+ * The shared workers serve the lanes with a smooth weighted round-robin: with the
+ * default weights, out of 13 e-mails taken while all the lanes have e-mails waiting,
+ * 8 are transactional, 4 normal and 1 bulk. Besides, the reserved workers only serve
+ * the {@link MailPriority#TRANSACTIONAL} lane, so transactional e-mails are sent
+ * even when all the shared workers are busy with slow deliveries.
+ * <p>
+ * Tasks submitted with {@link #execute(Runnable)} go to the {@link MailPriority#NORMAL} lane.
+ * Errors thrown by the tasks are passed to the uncaught exception handler of
+ * the worker thread, and the worker continues with the next task.
+ */
+public class MailLaneExecutor implements TaskExecutor {
+
+    private static final MailPriority[] LANES = MailPriority.values();
+
+    private int sharedWorkers = 2;
+    private int reservedWorkers = 1;
+    private final int[] capacities = { 1000, 1000, 1000 };
+    private final int[] weights = { 8, 4, 1 };
+    private ThreadGroup threadGroup;
+    private String threadNamePrefix = "mail-";
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition anyTask = lock.newCondition();
+    private final Condition transactionalTask = lock.newCondition();
+    private final List<ArrayDeque<LaneTask>> queues = new ArrayList<>(LANES.length);
+    private final int[] currentWeights = new int[LANES.length];
+    private final List<Thread> workers = new ArrayList<>();
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private volatile boolean shutdown;
+
+    private Instrumentation instrumentation = NoopInstrumentation.INSTANCE;
+    private final Timer[] waitTimers = new Timer[LANES.length];
+
+    public MailLaneExecutor() {
+        for (MailPriority lane : LANES) {
+            queues.add(new ArrayDeque<>());
+            waitTimers[lane.ordinal()] = instrumentation.timer("mail.lane." + laneName(lane) + ".wait");
+        }
+    }
+
+    private static class LaneTask {
+        private final Runnable task;
+        private final long enqueuedNanos = System.nanoTime();
+
+        private LaneTask(Runnable task) {
+            this.task = task;
+        }
+    }
+
+    /**
+     * Starts the worker threads.
+     */
+    public void initialize() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(threadNamePrefix);
+        if (threadGroup != null) threadFactory.setThreadGroup(threadGroup);
+        for (int i = 0; i < reservedWorkers; i++) {
+            workers.add(threadFactory.newThread(() -> work(true)));
+        }
+        for (int i = 0; i < sharedWorkers; i++) {
+            workers.add(threadFactory.newThread(() -> work(false)));
+        }
+        workers.forEach(Thread::start);
+    }
+
+    @Override public void execute(Runnable task) {
+        execute(task, MailPriority.NORMAL);
+    }
+
+    /**
+     * Enqueues `task` in the lane `priority`.
+     *
+     * @throws TaskRejectedException if the lane is full or the executor shut down
+     */
+    public void execute(Runnable task, MailPriority priority) throws TaskRejectedException {
+        int lane = priority.ordinal();
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new TaskRejectedException("Mail executor shut down, task " + task + " rejected.");
+            }
+            ArrayDeque<LaneTask> queue = queues.get(lane);
+            if (queue.size() >= capacities[lane]) {
+                throw new TaskRejectedException(
+                    "Mail lane " + priority + " full (" + capacities[lane] + " e-mails), task " + task + " rejected.");
+            }
+            queue.add(new LaneTask(task));
+            if (priority == MailPriority.TRANSACTIONAL) transactionalTask.signal();
+            anyTask.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work(boolean reserved) {
+        LaneTask laneTask;
+        while ((laneTask = take(reserved)) != null) {
+            activeCount.incrementAndGet();
+            try {
+                laneTask.task.run();
+            } catch (Throwable e) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            } finally {
+                activeCount.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Waits for the next task of the worker, returns <code>null</code>
+     * when the executor is shut down and the lanes are empty.
+     */
+    private LaneTask take(boolean reserved) {
+        lock.lock();
+        try {
+            while (true) {
+                int lane = reserved ? (queues.get(0).isEmpty() ? -1 : 0) : nextLane();
+                if (lane >= 0) {
+                    LaneTask laneTask = queues.get(lane).poll();
+                    waitTimers[lane].recordSince(laneTask.enqueuedNanos);
+                    return laneTask;
+                }
+                if (shutdown) return null;
+                (reserved ? transactionalTask : anyTask).awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Smooth weighted round-robin among the lanes with tasks, -1 if all are empty */
+    private int nextLane() {
+        int best = -1, total = 0;
+        for (int i = 0; i < LANES.length; i++) {
+            if (queues.get(i).isEmpty()) continue;
+            currentWeights[i] += weights[i];
+            total += weights[i];
+            if (best < 0 || currentWeights[i] > currentWeights[best]) best = i;
+        }
+        if (best >= 0) currentWeights[best] -= total;
+        return best;
+    }
+
+    /**
+     * Stops accepting tasks, and waits until the workers send the e-mails
+     * already enqueued or `timeoutMillis` elapses.
+     */
+    public void shutdown(long timeoutMillis) throws InterruptedException {
+        lock.lock();
+        try {
+            shutdown = true;
+            anyTask.signalAll();
+            transactionalTask.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (Thread worker : workers) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining > 0) worker.join(remaining);
+        }
+    }
+
+    /** Tasks waiting in the lane `priority` */
+    public int getQueueSize(MailPriority priority) {
+        lock.lock();
+        try {
+            return queues.get(priority.ordinal()).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Tasks waiting in all the lanes */
+    public int getQueueSize() {
+        lock.lock();
+        try {
+            return queues.stream().mapToInt(ArrayDeque::size).sum();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Workers running a task */
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    private static String laneName(MailPriority lane) {
+        return lane.name().toLowerCase();
+    }
+
+
+    /* Getters and Setters */
+
+    /** Workers serving all the lanes */
+    public void setSharedWorkers(int sharedWorkers) {
+        this.sharedWorkers = sharedWorkers;
+    }
+    /** Workers serving only the {@link MailPriority#TRANSACTIONAL} lane */
+    public void setReservedWorkers(int reservedWorkers) {
+        this.reservedWorkers = reservedWorkers;
+    }
+    public void setCapacity(MailPriority priority, int capacity) {
+        capacities[priority.ordinal()] = capacity;
+    }
+    public void setWeight(MailPriority priority, int weight) {
+        if (weight < 1) throw new IllegalArgumentException("Weight of mail lane " + priority + " must be positive.");
+        weights[priority.ordinal()] = weight;
+    }
+    public void setThreadGroup(ThreadGroup threadGroup) {
+        this.threadGroup = threadGroup;
+    }
+    public void setThreadNamePrefix(String threadNamePrefix) {
+        this.threadNamePrefix = threadNamePrefix;
+    }
+    /**
+     * Sets where to publish the time the e-mails wait in each lane (<code>mail.lane.&lt;lane&gt;.wait</code>),
+     * and registers the gauges <code>mail.lane.&lt;lane&gt;.queue.size</code>.
+     */
+    public void setInstrumentation(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+        for (MailPriority lane : LANES) {
+            waitTimers[lane.ordinal()] = instrumentation.timer("mail.lane." + laneName(lane) + ".wait");
+            instrumentation.gauge("mail.lane." + laneName(lane) + ".queue.size", () -> getQueueSize(lane));
+        }
+    }
+    public Instrumentation getInstrumentation() {
+        return instrumentation;
+    }
+}
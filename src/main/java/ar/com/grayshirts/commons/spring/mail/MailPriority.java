@@ -0,0 +1,17 @@
+package ar.com.grayshirts.commons.spring.mail;
+
+
+/**
+ * Lane where an e-mail waits to be sent by {@link MailLaneExecutor}.
+ */
+public enum MailPriority {
+
+    /** Password resets, 2FA codes and other e-mails the user is waiting for */
+    TRANSACTIONAL,
+
+    /** Default lane */
+    NORMAL,
+
+    /** Campaigns and other mass e-mails */
+    BULK
+}
@@ -0,0 +1,123 @@
+package ar.com.grayshirts.commons.spring.mail;
+
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * SMTP relay used by {@link MailRelayRouter}, with its health state.<br/>
+ * Each relay has a circuit breaker: after <code>failureThreshold</code> consecutive
+ * failures the relay is skipped during <code>openMillis</code>, then a single
+ * e-mail is sent to probe it, closing the circuit if it succeeds.
+ */
+public class MailRelay {
+
+    private final String name;
+    private final JavaMailSenderImpl sender;
+    private final int weight;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private volatile long openUntil;
+    private volatile boolean open;
+
+    /** Smooth weighted round-robin state, guarded by the {@link MailRelayRouter} */
+    int currentWeight;
+
+    /**
+     * @param name the relay name, used in the routing rules and the metrics, eg. <code>smtp1.example.com:587</code>
+     * @param sender the sender configured with the relay host
+     * @param weight the relative capacity of the relay, see {@link MailRelayRouter}
+     * @param failureThreshold consecutive failures that open the circuit
+     * @param openMillis time the relay is skipped after the circuit opens
+     */
+    public MailRelay(String name, JavaMailSenderImpl sender, int weight, int failureThreshold, long openMillis) {
+        if (weight < 1) throw new IllegalArgumentException("Weight of mail relay \"" + name + "\" must be positive.");
+        this.name = name;
+        this.sender = sender;
+        this.weight = weight;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * Returns <code>true</code> if the circuit is closed, or if it's open but
+     * the open time elapsed and this caller gets the probe.
+     */
+    boolean tryAcquire() {
+        if (open) {
+            if (System.nanoTime() - openUntil < 0 || !probing.compareAndSet(false, true)) {
+                return false;
+            }
+        }
+        outstanding.incrementAndGet();
+        return true;
+    }
+
+    void onSuccess() {
+        outstanding.decrementAndGet();
+        sent.incrementAndGet();
+        consecutiveFailures.set(0);
+        open = false;
+        probing.set(false);
+    }
+
+    void onFailure() {
+        outstanding.decrementAndGet();
+        failed.incrementAndGet();
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold || open) {
+            openUntil = System.nanoTime() + openNanos;
+            open = true;
+        }
+        probing.set(false);
+    }
+
+    /**
+     * Releases the relay after an error that isn't related to
+     * the relay health, eg. a malformed message.
+     */
+    void release() {
+        outstanding.decrementAndGet();
+        probing.set(false);
+    }
+
+    /** Outstanding e-mails divided by the weight, lower means less loaded */
+    double load() {
+        return (double) outstanding.get() / weight;
+    }
+
+    public String getName() {
+        return name;
+    }
+    public JavaMailSenderImpl getSender() {
+        return sender;
+    }
+    public int getWeight() {
+        return weight;
+    }
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+    public long getSent() {
+        return sent.get();
+    }
+    public long getFailed() {
+        return failed.get();
+    }
+    public boolean isCircuitOpen() {
+        return open;
+    }
+
+    @Override public String toString() {
+        return name + " (weight=" + weight + ", outstanding=" + getOutstanding() + ", sent=" + getSent()
+            + ", failed=" + getFailed() + (open ? ", circuit open" : "") + ")";
+    }
+}
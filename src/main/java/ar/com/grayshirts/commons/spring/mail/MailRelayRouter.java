@@ -0,0 +1,222 @@
+package ar.com.grayshirts.commons.spring.mail;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailParseException;
+import org.springframework.mail.MailPreparationException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import javax.mail.Address;
+import javax.mail.SendFailedException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+
+/**
+ * Distributes the e-mails sent by {@link AsyncMailSender} among a set of {@link MailRelay}s.
+ * <p>
+ * The relay is chosen by weighted least-outstanding: the relay with less e-mails being
+ * sent relative to its weight, taking turns by weight among the relays equally loaded.
+ * So when the relays keep up, a relay with weight 2 receives twice the e-mails of one
+ * with weight 1, and when they are saturated the e-mails being sent are proportional
+ * to the weights. Relays with the circuit open are skipped, and if a relay fails (connection,
+ * authentication or transient errors) the e-mail is sent again through the next one.
+ * Permanent rejections of the recipients or the content (5xx SMTP replies) don't count
+ * against the relay and are thrown without trying other relays.
+ * <p>
+ * Routing rules restrict the relays used for a recipient or sender domain,
+ * eg. to send all the e-mails to <code>example.com</code> through an internal relay.
+ * Recipient rules take precedence over sender rules, and e-mails without
+ * a matching rule can use any relay.
+ */
+public class MailRelayRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(MailRelayRouter.class);
+
+    private final Map<String, MailRelay> relays = new LinkedHashMap<>();
+    private final Map<String, List<MailRelay>> recipientRoutes = new ConcurrentHashMap<>();
+    private final Map<String, List<MailRelay>> senderRoutes = new ConcurrentHashMap<>();
+
+    public MailRelayRouter(List<MailRelay> relays) {
+        if (relays == null || relays.isEmpty()) {
+            throw new IllegalArgumentException("At least one mail relay is required.");
+        }
+        for (MailRelay relay : relays) {
+            this.relays.put(relay.getName(), relay);
+        }
+    }
+
+    /**
+     * Sends the e-mails to recipients of `domain` only through the relays `relayNames`.
+     */
+    public void addRecipientRoute(String domain, String... relayNames) {
+        recipientRoutes.put(domain.toLowerCase(), getRelays(relayNames));
+    }
+
+    /**
+     * Sends the e-mails from senders of `domain` only through the relays `relayNames`.
+     */
+    public void addSenderRoute(String domain, String... relayNames) {
+        senderRoutes.put(domain.toLowerCase(), getRelays(relayNames));
+    }
+
+    private List<MailRelay> getRelays(String... relayNames) {
+        List<MailRelay> list = new ArrayList<>(relayNames.length);
+        for (String relayName : relayNames) {
+            MailRelay relay = relays.get(relayName.trim());
+            if (relay == null) {
+                throw new IllegalArgumentException("Unknown mail relay \"" + relayName + "\". Relays configured: "
+                    + relays.keySet().stream().collect(Collectors.joining(", ")));
+            }
+            list.add(relay);
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Sends an e-mail through the best relay for the addresses given, and
+     * fails over to the other candidate relays if the relay fails.
+     *
+     * @param from the sender address, may be <code>null</code>
+     * @param to the first recipient address, may be <code>null</code>
+     * @param send sends the e-mail with the sender of the relay
+     * @throws MailException the permanent rejection of the e-mail, the error of the last relay
+     *                       tried, or a {@link MailSendException} if there are no relays available
+     */
+    public void send(String from, String to, Consumer<JavaMailSender> send) throws MailException {
+        List<MailRelay> candidates = getCandidates(from, to);
+        Set<MailRelay> tried = new HashSet<>();
+        MailException lastError = null;
+        MailRelay relay;
+        while ((relay = acquire(candidates, tried)) != null) {
+            tried.add(relay);
+            try {
+                send.accept(relay.getSender());
+            } catch (MailPreparationException | MailParseException e) {
+                // The message is wrong, another relay won't help
+                relay.release();
+                throw e;
+            } catch (MailSendException e) {
+                if (isRejected(e)) {
+                    // The relay works, but refused the recipients or the content, another relay won't help
+                    relay.release();
+                    throw e;
+                }
+                relay.onFailure();
+                log.warn("Error sending e-mail through relay {}: {}", relay.getName(), e.getMessage());
+                lastError = e;
+                continue;
+            } catch (MailException e) {
+                // Authentication or other relay errors
+                relay.onFailure();
+                log.warn("Error sending e-mail through relay {}: {}", relay.getName(), e.getMessage());
+                lastError = e;
+                continue;
+            } catch (RuntimeException e) {
+                // Not a delivery error, only frees the relay (and its probe, if it was one)
+                relay.release();
+                throw e;
+            }
+            relay.onSuccess();
+            return;
+        }
+        if (lastError != null) throw lastError;
+        throw new MailSendException("No mail relay available, relays: " + relays.values());
+    }
+
+    /**
+     * Returns <code>true</code> if all the messages of `e` were rejected permanently by the relay,
+     * ie. with a 5xx SMTP reply or invalid recipients. Connection errors and
+     * transient (4xx) replies return <code>false</code>.
+     */
+    static boolean isRejected(MailSendException e) {
+        Map<Object, Exception> failedMessages = e.getFailedMessages();
+        if (failedMessages.isEmpty()) return isRejected(e.getCause());
+        for (Exception error : failedMessages.values()) {
+            if (!isRejected(error)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isRejected(Throwable error) {
+        // MessagingException returns the next exception as the cause
+        for (Throwable e = error; e != null; e = e.getCause() != e ? e.getCause() : null) {
+            int code = -1;
+            if (e instanceof SMTPAddressFailedException) code = ((SMTPAddressFailedException) e).getReturnCode();
+            if (e instanceof SMTPSendFailedException) code = ((SMTPSendFailedException) e).getReturnCode();
+            if (code >= 500) return true;
+            if (code >= 400) return false;
+            if (e instanceof SendFailedException) {
+                Address[] invalid = ((SendFailedException) e).getInvalidAddresses();
+                if (invalid != null && invalid.length > 0) return true;
+            }
+        }
+        return false;
+    }
+
+    List<MailRelay> getCandidates(String from, String to) {
+        List<MailRelay> candidates = route(recipientRoutes, to);
+        if (candidates == null) candidates = route(senderRoutes, from);
+        return candidates != null ? candidates : new ArrayList<>(relays.values());
+    }
+
+    private List<MailRelay> route(Map<String, List<MailRelay>> routes, String address) {
+        if (address == null || routes.isEmpty()) return null;
+        int at = address.lastIndexOf('@');
+        String domain = address.substring(at + 1).trim().toLowerCase();
+        if (domain.endsWith(">")) domain = domain.substring(0, domain.length() - 1);
+        return routes.get(domain);
+    }
+
+    private MailRelay acquire(List<MailRelay> candidates, Set<MailRelay> tried) {
+        while (true) {
+            MailRelay best = select(candidates, tried);
+            if (best == null) return null;
+            if (best.tryAcquire()) return best;
+            // Circuit open, don't try it again for this e-mail
+            tried.add(best);
+        }
+    }
+
+    /**
+     * The candidate not tried with the lowest load. Ties are broken with a smooth
+     * weighted round-robin, so relays with the same load take turns in proportion
+     * to their weights instead of the first one receiving all the e-mails.
+     */
+    private synchronized MailRelay select(List<MailRelay> candidates, Set<MailRelay> tried) {
+        // The loads change concurrently, so both passes use the same snapshot
+        double[] loads = new double[candidates.size()];
+        double lowest = Double.MAX_VALUE;
+        for (int i = 0; i < loads.length; i++) {
+            MailRelay relay = candidates.get(i);
+            loads[i] = tried.contains(relay) ? Double.MAX_VALUE : relay.load();
+            lowest = Math.min(lowest, loads[i]);
+        }
+        MailRelay best = null;
+        int total = 0;
+        for (int i = 0; i < loads.length; i++) {
+            if (loads[i] == Double.MAX_VALUE || loads[i] > lowest) continue;
+            MailRelay relay = candidates.get(i);
+            relay.currentWeight += relay.getWeight();
+            total += relay.getWeight();
+            if (best == null || relay.currentWeight > best.currentWeight) best = relay;
+        }
+        if (best != null) best.currentWeight -= total;
+        return best;
+    }
+
+    public List<MailRelay> getRelays() {
+        return new ArrayList<>(relays.values());
+    }
+}
@@ -1,5 +1,8 @@
 package ar.com.grayshirts.commons.spring.mail;
 
+import ar.com.grayshirts.commons.spring.metrics.Instrumentation;
+import ar.com.grayshirts.commons.spring.metrics.NoopInstrumentation;
+import ar.com.grayshirts.commons.spring.metrics.Timer;
 import ar.com.grayshirts.commons.spring.template.TemplateService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,6 +56,8 @@ public class MailService {
     @Autowired
     private TemplateService templateService;
 
+    private Timer buildTimer = NoopInstrumentation.INSTANCE.timer("mail.build");
+
 	/**
 	 * Send an e-mail in async way.
 	 *
@@ -83,6 +88,21 @@ public class MailService {
         send(templatePath, layout, subject, new String[] { to }, context, attachments);
     }
 
+    /**
+     * Send an e-mail in async way, in the lane `priority`.
+     *
+     * @param templatePath the Velocity template path. Relative to `src/main/resources/templates/emails/` path.
+     * @param layout the base layout template.  Relative to `src/main/resources/templates/emails/layouts/` path.
+     * @param subject the title of the email
+     * @param to the "To" address
+     * @param context map with all values to inject to the template
+     * @param priority the lane of the e-mail, eg. {@link MailPriority#TRANSACTIONAL} for a password reset
+     */
+    public void send(String templatePath, String layout, String subject, String to,
+                     Map<String, Object> context, MailPriority priority) {
+        send(templatePath, layout, subject, new String[] { to }, context, null, priority);
+    }
+
 	/**
 	 * Send an e-mail in async way.
 	 *
@@ -96,6 +116,24 @@ public class MailService {
 	 */
 	public void send(String templatePath, String layout, String subject, String[] to,
                      Map<String, Object> context, Map<String, Object> attachments) {
+		send(templatePath, layout, subject, to, context, attachments, MailPriority.NORMAL);
+	}
+
+	/**
+	 * Send an e-mail in async way, in the lane `priority`.
+	 *
+	 * @param templatePath the Velocity template path. Relative to `src/main/resources/templates/emails/` path.
+     * @param layout the base layout template.  Relative to `src/main/resources/templates/layouts/emails/` path.
+	 * @param subject the title of the email
+	 * @param to an array with the "To" addresses
+	 * @param context map with all values to inject to the template
+     * @param attachments map with attachment files, the key is the filename, and the value must be
+     *                    a {@link File} or an {@link InputStreamSource}
+     * @param priority the lane of the e-mail, eg. {@link MailPriority#BULK} for a campaign. Only
+     *                 used if the sender is an {@link AsyncMailSender}
+	 */
+	public void send(String templatePath, String layout, String subject, String[] to,
+                     Map<String, Object> context, Map<String, Object> attachments, MailPriority priority) {
 		if (to==null || to.length==0) {
 			throw new NullPointerException("\"to\" cannot be null or empty.");
 		}
@@ -113,6 +151,7 @@ public class MailService {
 					}
 				}
 				log.debug(getLog(subject, text, to));
+				long start = System.nanoTime();
 				MimeMessage mimeMessage = javaMailSender.createMimeMessage();
 				MimeMessageHelper helper = new MimeMessageHelper(mimeMessage, hasAttachments, "utf-8");
 				helper.setTo(to);
@@ -146,7 +185,12 @@ public class MailService {
                 } else {
                     mimeMessage.setContent(text, "text/html; charset=utf-8");
                 }
-				javaMailSender.send(mimeMessage);
+				buildTimer.recordSince(start);
+				if (javaMailSender instanceof AsyncMailSender) {
+					((AsyncMailSender) javaMailSender).send(mimeMessage, priority);
+				} else {
+					javaMailSender.send(mimeMessage);
+				}
 			} catch (MessagingException e) {
 				throw new RuntimeException("Error creating mail message.", e);
 			}
@@ -161,4 +205,12 @@ public class MailService {
 	private String getLog(String subject, String text, String ... to) {
 		return "Sending email to [" + Stream.of(to).collect(Collectors.joining(", ")) + "] with subject \"" + subject + "\" and body: " + text;
 	}
+
+	/**
+	 * Sets where to publish the time to build the e-mails (<code>mail.build</code>).
+	 */
+	@Autowired(required = false)
+	public void setInstrumentation(Instrumentation instrumentation) {
+		this.buildTimer = instrumentation.timer("mail.build");
+	}
 }
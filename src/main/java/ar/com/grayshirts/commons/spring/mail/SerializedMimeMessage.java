@@ -0,0 +1,61 @@
+package ar.com.grayshirts.commons.spring.mail;
+
+import org.springframework.mail.MailPreparationException;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import javax.mail.util.SharedByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+
+
+/**
+ * {@link MimeMessage} parsed from its RFC 822 form, used by {@link AsyncMailSender}
+ * to keep only the bytes of the e-mails while they wait in the queue.
+ * <p>
+ * The content shares the byte array (it isn't copied nor decoded), and
+ * {@link #saveChanges()} does nothing, so the transport writes the
+ * original bytes as they are instead of rebuilding the MIME parts.
+ */
+class SerializedMimeMessage extends MimeMessage {
+
+    SerializedMimeMessage(Session session, byte[] message) throws MessagingException {
+        super(session, new SharedByteArrayInputStream(message));
+    }
+
+    /**
+     * Returns the RFC 822 form of `message`, with the headers updated as
+     * the transport does before sending it.
+     */
+    static byte[] serialize(MimeMessage message) {
+        try {
+            if (message.getSentDate() == null) {
+                message.setSentDate(new Date());
+            }
+            String messageId = message.getMessageID();
+            message.saveChanges();
+            if (messageId != null) {
+                // Preserve explicitly specified message id, as it may be reset by saveChanges()
+                message.setHeader("Message-ID", messageId);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(estimateSize(message));
+            message.writeTo(out);
+            return out.toByteArray();
+        } catch (MessagingException | IOException e) {
+            throw new MailPreparationException("Error serializing the e-mail to enqueue it.", e);
+        }
+    }
+
+    private static int estimateSize(MimeMessage message) throws MessagingException {
+        int size = message.getSize();
+        // The size of the content is unknown until it's encoded
+        return size > 0 ? size + 4096 : 32 * 1024;
+    }
+
+    /**
+     * The headers were already updated when the message was serialized.
+     */
+    @Override public void saveChanges() {
+    }
+}
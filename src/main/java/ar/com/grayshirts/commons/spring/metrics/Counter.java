@@ -0,0 +1,14 @@
+package ar.com.grayshirts.commons.spring.metrics;
+
+
+/**
+ * Monotonically increasing count.
+ */
+public interface Counter {
+
+    void add(long delta);
+
+    default void increment() {
+        add(1);
+    }
+}
@@ -0,0 +1,10 @@
+package ar.com.grayshirts.commons.spring.metrics;
+
+
+/**
+ * Records the distribution of non-negative values, like sizes in bytes.
+ */
+public interface Histogram {
+
+    void record(long value);
+}
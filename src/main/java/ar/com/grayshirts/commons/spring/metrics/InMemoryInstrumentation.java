@@ -0,0 +1,169 @@
+package ar.com.grayshirts.commons.spring.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+
+/**
+ * {@link Instrumentation} that keeps the metrics in memory, to expose them
+ * from an endpoint or log them periodically.<br/>
+ * Timers and histograms are recorded into log-linear buckets, like
+ * an <i>HDR histogram</i>: 32 buckets per power of two, so the percentiles
+ * have a relative error below 3.2%, with a fixed memory footprint
+ * and without allocating when recording.
+ */
+public class InMemoryInstrumentation implements Instrumentation {
+
+    private final Map<String, InMemoryHistogram> timers = new ConcurrentHashMap<>();
+    private final Map<String, InMemoryHistogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, InMemoryCounter> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    @Override public InMemoryHistogram timer(String name) {
+        InMemoryHistogram timer = timers.get(name);
+        return timer != null ? timer : timers.computeIfAbsent(name, n -> new InMemoryHistogram());
+    }
+
+    @Override public InMemoryCounter counter(String name) {
+        InMemoryCounter counter = counters.get(name);
+        return counter != null ? counter : counters.computeIfAbsent(name, n -> new InMemoryCounter());
+    }
+
+    @Override public InMemoryHistogram histogram(String name) {
+        InMemoryHistogram histogram = histograms.get(name);
+        return histogram != null ? histogram : histograms.computeIfAbsent(name, n -> new InMemoryHistogram());
+    }
+
+    @Override public void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /**
+     * Returns the current value of the gauge `name`, or <code>null</code>
+     * if it isn't registered.
+     */
+    public Long getGauge(String name) {
+        LongSupplier supplier = gauges.get(name);
+        return supplier != null ? supplier.getAsLong() : null;
+    }
+
+    public Map<String, InMemoryHistogram> getTimers() {
+        return Collections.unmodifiableMap(timers);
+    }
+    public Map<String, InMemoryHistogram> getHistograms() {
+        return Collections.unmodifiableMap(histograms);
+    }
+    public Map<String, InMemoryCounter> getCounters() {
+        return Collections.unmodifiableMap(counters);
+    }
+    public Map<String, LongSupplier> getGauges() {
+        return Collections.unmodifiableMap(gauges);
+    }
+
+
+    /**
+     * Counter backed by a {@link LongAdder}.
+     */
+    public static class InMemoryCounter implements Counter {
+
+        private final LongAdder count = new LongAdder();
+
+        @Override public void add(long delta) {
+            count.add(delta);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override public String toString() {
+            return String.valueOf(getCount());
+        }
+    }
+
+
+    /**
+     * Log-linear histogram of non-negative values, negative values are recorded as 0.
+     */
+    public static class InMemoryHistogram implements Timer, Histogram {
+
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        @Override public void record(long value) {
+            if (value < 0) value = 0;
+            buckets.incrementAndGet(index(value));
+            count.increment();
+            sum.add(value);
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // Retry
+            }
+        }
+
+        static int index(long value) {
+            if (value < 2 * SUB_BUCKETS) return (int) value;
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+        }
+
+        /** Highest value that falls into the bucket `index` */
+        static long highestValue(int index) {
+            if (index < 2 * SUB_BUCKETS) return index;
+            int shift = index / SUB_BUCKETS - 1;
+            long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+            return ((subBucket + 1) << shift) - 1;
+        }
+
+        /**
+         * Returns the value below which `percentile` percent of the
+         * recorded values fall, eg. <code>getValueAtPercentile(99)</code>.
+         */
+        public long getValueAtPercentile(double percentile) {
+            long total = 0;
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+            long accumulated = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                accumulated += counts[i];
+                if (accumulated >= rank) return Math.min(highestValue(i), getMax());
+            }
+            return getMax();
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+        public long getSum() {
+            return sum.sum();
+        }
+        public long getMax() {
+            return max.get();
+        }
+        public double getMean() {
+            long n = getCount();
+            return n == 0 ? 0 : (double) getSum() / n;
+        }
+
+        @Override public String toString() {
+            return "count=" + getCount() + " mean=" + (long) getMean() + " p50=" + getValueAtPercentile(50)
+                + " p99=" + getValueAtPercentile(99) + " max=" + getMax();
+        }
+    }
+}
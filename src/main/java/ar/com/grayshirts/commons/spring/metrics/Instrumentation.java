@@ -0,0 +1,41 @@
+package ar.com.grayshirts.commons.spring.metrics;
+
+import java.util.function.LongSupplier;
+
+
+/**
+ * Instrumentation SPI used by the services of the library to publish timings,
+ * counts and gauges.<br/>
+ * Declare a bean implementing this interface to collect the metrics, eg.
+ * {@link InMemoryInstrumentation}, or an adapter to your metrics library.
+ * Without a bean the services use {@link NoopInstrumentation}.
+ * <p>
+ * The services resolve their metrics when the instrumentation is set and keep them,
+ * except the per-template timers, resolved on the first render of each template.
+ * So implementations can allocate when a metric is created, but recording should
+ * be allocation-free.
+ */
+public interface Instrumentation {
+
+    /**
+     * Returns the timer `name`, creating it if it doesn't exist.
+     */
+    Timer timer(String name);
+
+    /**
+     * Returns the counter `name`, creating it if it doesn't exist.
+     */
+    Counter counter(String name);
+
+    /**
+     * Returns the distribution summary `name` (eg. sizes in bytes),
+     * creating it if it doesn't exist.
+     */
+    Histogram histogram(String name);
+
+    /**
+     * Registers the gauge `name`, which value is read from `supplier` when
+     * the metrics are collected.
+     */
+    void gauge(String name, LongSupplier supplier);
+}
@@ -0,0 +1,35 @@
+package ar.com.grayshirts.commons.spring.metrics;
+
+import java.util.function.LongSupplier;
+
+
+/**
+ * {@link Instrumentation} that discards all the metrics, used
+ * by default when there is no other implementation declared.
+ */
+public final class NoopInstrumentation implements Instrumentation {
+
+    public static final NoopInstrumentation INSTANCE = new NoopInstrumentation();
+
+    private static final Timer TIMER = nanos -> { };
+    private static final Counter COUNTER = delta -> { };
+    private static final Histogram HISTOGRAM = value -> { };
+
+    private NoopInstrumentation() {
+    }
+
+    @Override public Timer timer(String name) {
+        return TIMER;
+    }
+
+    @Override public Counter counter(String name) {
+        return COUNTER;
+    }
+
+    @Override public Histogram histogram(String name) {
+        return HISTOGRAM;
+    }
+
+    @Override public void gauge(String name, LongSupplier supplier) {
+    }
+}
@@ -0,0 +1,18 @@
+package ar.com.grayshirts.commons.spring.metrics;
+
+
+/**
+ * Records durations in nanoseconds.
+ */
+public interface Timer {
+
+    void record(long nanos);
+
+    /**
+     * Records the time elapsed since `startNanos`, a value
+     * returned by {@link System#nanoTime()}.
+     */
+    default void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+}
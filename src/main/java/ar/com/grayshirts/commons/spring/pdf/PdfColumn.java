@@ -0,0 +1,55 @@
+package ar.com.grayshirts.commons.spring.pdf;
+
+import com.itextpdf.text.Element;
+import java.util.function.Function;
+
+
+/**
+ * Column of a report generated by {@link TablePdfService}.
+ *
+ * @param <T> the class of the rows
+ */
+public class PdfColumn<T> {
+
+    private final String header;
+    private final float width;
+    private final Function<T, ?> value;
+    private final int alignment;
+
+    /**
+     * @param header the column title
+     * @param width the relative width of the column
+     * @param value extracts the cell value from the row, <code>null</code> values are rendered empty
+     */
+    public PdfColumn(String header, float width, Function<T, ?> value) {
+        this(header, width, value, Element.ALIGN_LEFT);
+    }
+
+    /**
+     * @param header the column title
+     * @param width the relative width of the column
+     * @param value extracts the cell value from the row, <code>null</code> values are rendered empty
+     * @param alignment the horizontal alignment of the cells, eg. {@link Element#ALIGN_RIGHT} for amounts
+     */
+    public PdfColumn(String header, float width, Function<T, ?> value, int alignment) {
+        this.header = header;
+        this.width = width;
+        this.value = value;
+        this.alignment = alignment;
+    }
+
+    String getText(T row) {
+        Object cell = value.apply(row);
+        return cell != null ? cell.toString() : "";
+    }
+
+    public String getHeader() {
+        return header;
+    }
+    public float getWidth() {
+        return width;
+    }
+    public int getAlignment() {
+        return alignment;
+    }
+}
@@ -16,4 +16,9 @@ public class PdfConfiguration {
     public PdfService pdfService() {
         return new PdfService();
     }
+
+    @Bean
+    public TablePdfService tablePdfService() {
+        return new TablePdfService();
+    }
 }
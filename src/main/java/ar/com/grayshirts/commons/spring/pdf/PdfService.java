@@ -1,7 +1,14 @@
 package ar.com.grayshirts.commons.spring.pdf;
 
+import ar.com.grayshirts.commons.spring.metrics.Counter;
+import ar.com.grayshirts.commons.spring.metrics.Histogram;
+import ar.com.grayshirts.commons.spring.metrics.Instrumentation;
+import ar.com.grayshirts.commons.spring.metrics.NoopInstrumentation;
+import ar.com.grayshirts.commons.spring.metrics.Timer;
 import ar.com.grayshirts.commons.spring.template.TemplateService;
+import com.google.common.io.CountingOutputStream;
 import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
 import com.itextpdf.text.PageSize;
 import com.itextpdf.text.pdf.PdfWriter;
 import com.itextpdf.tool.xml.XMLWorkerHelper;
@@ -12,6 +19,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.env.Environment;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.util.Map;
 import java.util.stream.Stream;
@@ -38,6 +46,10 @@ public class PdfService {
     @Autowired
     private TemplateService templateService;
 
+    private Timer renderTimer = NoopInstrumentation.INSTANCE.timer("pdf.render");
+    private Counter renderFailures = NoopInstrumentation.INSTANCE.counter("pdf.render.failures");
+    private Histogram sizeHistogram = NoopInstrumentation.INSTANCE.histogram("pdf.size");
+
 	/**
 	 * Creates a PDF file using `templatePath` velocity template and `context`environment variables.
      *
@@ -51,6 +63,22 @@ public class PdfService {
 	 * @param context map with all values to inject to the template
 	 */
 	public void render(String templatePath, String layout, String title, FileOutputStream out, Map<String, Object> context) {
+		render(templatePath, layout, title, (OutputStream) out, context);
+	}
+
+	/**
+	 * Creates a PDF using `templatePath` velocity template and `context`environment variables,
+	 * and writes it to any output stream, eg. the response of a request.
+	 *
+	 * Uses by default A4 size, you can change the configuration page with {@link #setDocument(Document)}.
+	 *
+	 * @param templatePath the Velocity template path. Relative to `src/main/resources/templates/pdf/` path.
+	 * @param layout the base layout template.  Relative to `src/main/resources/templates/layouts/pdf/` path.
+	 * @param title the meta-title of the PDF
+	 * @param out the output stream where to place the PDF content. It's closed when the PDF is completed
+	 * @param context map with all values to inject to the template
+	 */
+	public void render(String templatePath, String layout, String title, OutputStream out, Map<String, Object> context) {
 
 		// Create the HTML content
         String bodyHtml = templateService.render("../pdf/" + templatePath, "pdf/" + layout, context);
@@ -63,26 +91,35 @@ public class PdfService {
 				}
 			}
 			log.debug(getLog(title, bodyHtml));
-			PdfWriter pdfWriter;
+			long start = System.nanoTime();
+			CountingOutputStream countingOut = new CountingOutputStream(out);
+			// A document cannot be reopened once closed, so each PDF uses a copy of the page configuration
+			Document document = new Document(this.document.getPageSize(), this.document.leftMargin(),
+			                                 this.document.rightMargin(), this.document.topMargin(),
+			                                 this.document.bottomMargin());
 			try {
-				pdfWriter = PdfWriter.getInstance(document, out);
-			} catch (Exception e) {
-				throw new RuntimeException("Error creating the PDF report.", e);
-			}
-			pdfWriter.createXmpMetadata();
-			document.addTitle(title);
-			document.addAuthor(author);
-			document.addCreationDate();
-			document.open();
-			XMLWorkerHelper worker = XMLWorkerHelper.getInstance();
+				PdfWriter pdfWriter = PdfWriter.getInstance(document, countingOut);
+				pdfWriter.createXmpMetadata();
+				document.addTitle(title);
+				document.addAuthor(author);
+				document.addCreationDate();
+				document.open();
+				XMLWorkerHelper worker = XMLWorkerHelper.getInstance();
 
-			try {
-				worker.parseXHtml(pdfWriter, document, new StringReader(bodyHtml));
-			} catch (IOException e) {
+				try {
+					worker.parseXHtml(pdfWriter, document, new StringReader(bodyHtml));
+				} finally {
+					document.close();
+				}
+			} catch (DocumentException | IOException e) {
+				renderFailures.increment();
 				throw new RuntimeException("Error trying to generate a PDF report.", e);
-			} finally {
-				document.close();
+			} catch (RuntimeException e) {
+				renderFailures.increment();
+				throw e;
 			}
+			renderTimer.recordSince(start);
+			sizeHistogram.record(countingOut.getCount());
 		} else {
 			log.info(getLog(title, bodyHtml));
 		}
@@ -92,6 +129,20 @@ public class PdfService {
 		return "Creating PDF report with title \"" + title + "\" and body: " + text;
 	}
 
+    /**
+     * Sets where to publish the render time (<code>pdf.render</code>), the failures
+     * (<code>pdf.render.failures</code>) and the size of the PDFs (<code>pdf.size</code>).
+     */
+    @Autowired(required = false)
+    public void setInstrumentation(Instrumentation instrumentation) {
+        this.renderTimer = instrumentation.timer("pdf.render");
+        this.renderFailures = instrumentation.counter("pdf.render.failures");
+        this.sizeHistogram = instrumentation.histogram("pdf.size");
+    }
+    /** <code>false</code> when the PDF generation is disabled with <code>pdf.enable</code> */
+    public boolean isEnable() {
+        return enable;
+    }
     public Document getDocument() {
         return document;
     }
@@ -0,0 +1,255 @@
+package ar.com.grayshirts.commons.spring.pdf;
+
+import ar.com.grayshirts.commons.spring.metrics.Counter;
+import ar.com.grayshirts.commons.spring.metrics.Histogram;
+import ar.com.grayshirts.commons.spring.metrics.Instrumentation;
+import ar.com.grayshirts.commons.spring.metrics.NoopInstrumentation;
+import ar.com.grayshirts.commons.spring.metrics.Timer;
+import com.google.common.io.CountingOutputStream;
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.Element;
+import com.itextpdf.text.Font;
+import com.itextpdf.text.FontFactory;
+import com.itextpdf.text.Phrase;
+import com.itextpdf.text.Rectangle;
+import com.itextpdf.text.pdf.ColumnText;
+import com.itextpdf.text.pdf.PdfPCell;
+import com.itextpdf.text.pdf.PdfPTable;
+import com.itextpdf.text.pdf.PdfPageEventHelper;
+import com.itextpdf.text.pdf.PdfWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+
+/**
+ * Service class to generate tabular PDF reports from rows of data, without HTML.
+ * <p>
+ * Unlike {@link PdfService}, the rows are read from an {@link Iterator} or a {@link Stream}
+ * and laid out with the iText table API in chunks, flushing the pages already completed,
+ * so the memory used doesn't depend on the number of rows.
+ * <p>
+ * The page size, margins and author are taken from {@link PdfService}. The header and
+ * footer of each page are text templates with the placeholders <code>{title}</code>,
+ * <code>{page}</code> and <code>{date}</code>.
+ */
+public class TablePdfService {
+
+    private Logger log = LoggerFactory.getLogger(this.getClass());
+
+    /** Rows added to the table before flushing them to the document */
+    private static final int CHUNK_SIZE = 200;
+
+    @Value("${pdf.enable:true}")
+    private boolean enable;
+
+    @Value("${pdf.author:Grayshirts}")
+    private String author;
+
+    @Value("${pdf.table.header:{title}}")
+    private String headerTemplate;
+
+    @Value("${pdf.table.footer:{page}}")
+    private String footerTemplate;
+
+    @Value("${pdf.table.fontSize:8}")
+    private float fontSize;
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private PdfService pdfService;
+
+    private Timer renderTimer = NoopInstrumentation.INSTANCE.timer("pdf.table.render");
+    private Counter renderFailures = NoopInstrumentation.INSTANCE.counter("pdf.table.render.failures");
+    private Histogram sizeHistogram = NoopInstrumentation.INSTANCE.histogram("pdf.table.size");
+
+    /**
+     * Creates a PDF report with a table of `rows`, using the default header and footer.
+     *
+     * @param title the meta-title of the PDF
+     * @param columns the columns of the table
+     * @param rows the rows of the table, consumed while the PDF is generated
+     * @param out the output stream where to place the PDF content. It's closed when the PDF is completed
+     */
+    public <T> void render(String title, List<PdfColumn<T>> columns, Iterator<T> rows, OutputStream out) {
+        render(title, columns, rows, headerTemplate, footerTemplate, out);
+    }
+
+    /**
+     * Creates a PDF report with a table of `rows`, using the default header and footer.
+     * The stream is closed after use.
+     *
+     * @see #render(String, List, Iterator, OutputStream)
+     */
+    public <T> void render(String title, List<PdfColumn<T>> columns, Stream<T> rows, OutputStream out) {
+        try (Stream<T> s = rows) {
+            render(title, columns, s.iterator(), out);
+        }
+    }
+
+    /**
+     * Creates a PDF report with a table of `rows`.
+     *
+     * @param title the meta-title of the PDF
+     * @param columns the columns of the table
+     * @param rows the rows of the table, consumed while the PDF is generated
+     * @param header the text at the top of each page, or <code>null</code>
+     * @param footer the text at the bottom of each page, or <code>null</code>
+     * @param out the output stream where to place the PDF content. It's closed when the PDF is completed,
+     *            or left incomplete (without the PDF trailer) if the rows or the layout fail
+     */
+    public <T> void render(String title, List<PdfColumn<T>> columns, Iterator<T> rows,
+                           String header, String footer, OutputStream out) {
+        if (columns == null || columns.isEmpty()) {
+            throw new IllegalArgumentException("\"columns\" cannot be null or empty.");
+        }
+        if (!enable) {
+            log.info("Creating tabular PDF report with title \"{}\" disabled.", title);
+            return;
+        }
+        if (Stream.of(environment.getActiveProfiles()).noneMatch(s -> "prod".equals(s))) {
+            for (String profile : environment.getActiveProfiles()) {
+                title = "[" + profile.toUpperCase() + "] " + title;
+            }
+        }
+        log.debug("Creating tabular PDF report with title \"{}\" ...", title);
+        long start = System.nanoTime();
+        long rowCount = 0;
+
+        Document layout = pdfService.getDocument();
+        Document document = new Document(layout.getPageSize(), layout.leftMargin(), layout.rightMargin(),
+                                          layout.topMargin(), layout.bottomMargin());
+        CountingOutputStream countingOut = new CountingOutputStream(out);
+        try {
+            PdfWriter pdfWriter = PdfWriter.getInstance(document, countingOut);
+            pdfWriter.setPageEvent(new HeaderFooter(title, header, footer));
+            pdfWriter.createXmpMetadata();
+            document.addTitle(title);
+            document.addAuthor(author);
+            document.addCreationDate();
+            document.open();
+
+            Font headerFont = FontFactory.getFont(FontFactory.HELVETICA_BOLD, fontSize);
+            Font cellFont = FontFactory.getFont(FontFactory.HELVETICA, fontSize);
+            PdfPTable table = createTable(columns, headerFont);
+            while (rows.hasNext()) {
+                T row = rows.next();
+                for (PdfColumn<T> column : columns) {
+                    PdfPCell cell = new PdfPCell(new Phrase(column.getText(row), cellFont));
+                    cell.setHorizontalAlignment(column.getAlignment());
+                    table.addCell(cell);
+                }
+                if (++rowCount % CHUNK_SIZE == 0) {
+                    // Lays out the rows added and removes them from the table
+                    document.add(table);
+                }
+            }
+            table.setComplete(true);
+            document.add(table);
+            document.close();
+        } catch (DocumentException e) {
+            renderFailures.increment();
+            RuntimeException error = new RuntimeException("Error creating the PDF report.", e);
+            abort(countingOut, error);
+            throw error;
+        } catch (RuntimeException e) {
+            renderFailures.increment();
+            abort(countingOut, e);
+            throw e;
+        }
+        renderTimer.recordSince(start);
+        sizeHistogram.record(countingOut.getCount());
+        log.debug("Creating tabular PDF report with title \"{}\" done: {} rows, {} bytes.",
+                  title, rowCount, countingOut.getCount());
+    }
+
+    /**
+     * Closes the output of a failed report without closing the document: that would
+     * write a valid trailer, making a truncated report look complete, or throw
+     * "The document has no pages" hiding `cause`.
+     */
+    private void abort(OutputStream out, Exception cause) {
+        try {
+            out.close();
+        } catch (IOException | RuntimeException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Sets where to publish the render time (<code>pdf.table.render</code>), the failures
+     * (<code>pdf.table.render.failures</code>) and the size of the PDFs (<code>pdf.table.size</code>).
+     */
+    @Autowired(required = false)
+    public void setInstrumentation(Instrumentation instrumentation) {
+        this.renderTimer = instrumentation.timer("pdf.table.render");
+        this.renderFailures = instrumentation.counter("pdf.table.render.failures");
+        this.sizeHistogram = instrumentation.histogram("pdf.table.size");
+    }
+
+    private <T> PdfPTable createTable(List<PdfColumn<T>> columns, Font headerFont) throws DocumentException {
+        PdfPTable table = new PdfPTable(columns.size());
+        float[] widths = new float[columns.size()];
+        for (int i = 0; i < widths.length; i++) {
+            PdfColumn<T> column = columns.get(i);
+            widths[i] = column.getWidth();
+            PdfPCell cell = new PdfPCell(new Phrase(column.getHeader(), headerFont));
+            cell.setHorizontalAlignment(column.getAlignment());
+            cell.setGrayFill(0.9f);
+            table.addCell(cell);
+        }
+        table.setWidths(widths);
+        table.setWidthPercentage(100);
+        table.setHeaderRows(1);
+        table.setComplete(false);
+        return table;
+    }
+
+    /**
+     * Writes the header and footer of each page.
+     */
+    private static class HeaderFooter extends PdfPageEventHelper {
+
+        private final String title;
+        private final String header;
+        private final String footer;
+        private final String date = LocalDate.now().toString();
+        private final Font font = FontFactory.getFont(FontFactory.HELVETICA, 8);
+
+        private HeaderFooter(String title, String header, String footer) {
+            this.title = title;
+            this.header = header;
+            this.footer = footer;
+        }
+
+        @Override public void onEndPage(PdfWriter writer, Document document) {
+            Rectangle page = document.getPageSize();
+            float x = (page.getLeft() + page.getRight()) / 2;
+            if (header != null && !header.isEmpty()) {
+                ColumnText.showTextAligned(writer.getDirectContent(), Element.ALIGN_CENTER,
+                    new Phrase(format(header, writer), font), x, page.getTop() - document.topMargin() / 2, 0);
+            }
+            if (footer != null && !footer.isEmpty()) {
+                ColumnText.showTextAligned(writer.getDirectContent(), Element.ALIGN_CENTER,
+                    new Phrase(format(footer, writer), font), x, page.getBottom() + document.bottomMargin() / 2, 0);
+            }
+        }
+
+        private String format(String template, PdfWriter writer) {
+            return template.replace("{title}", title)
+                           .replace("{page}", String.valueOf(writer.getPageNumber()))
+                           .replace("{date}", date);
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package ar.com.grayshirts.commons.spring.template;
 
+import ar.com.grayshirts.commons.spring.metrics.Counter;
+import ar.com.grayshirts.commons.spring.metrics.Instrumentation;
+import ar.com.grayshirts.commons.spring.metrics.NoopInstrumentation;
+import ar.com.grayshirts.commons.spring.metrics.Timer;
 import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.VelocityEngine;
@@ -8,6 +12,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import java.io.StringWriter;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import static org.apache.commons.lang3.StringUtils.isEmpty;
 
 
@@ -24,6 +29,11 @@ public class TemplateService {
     @Autowired
     private String velocityTemplateBasePath;
 
+    private Instrumentation instrumentation = NoopInstrumentation.INSTANCE;
+    private Counter renderFailures = instrumentation.counter("template.render.failures");
+
+    private final Map<String, Timer> renderTimers = new ConcurrentHashMap<>();
+
     /**
      * Render the template `templatePath` into a String, using the values contained in `context` as variables.
      *
@@ -37,6 +47,7 @@ public class TemplateService {
             if (isEmpty(layout)) throw new NullPointerException("\"layout\" cannot be null or empty.");
 
             log.debug("Rendering template \"{}\" ...", templatePath);
+            long start = System.nanoTime();
             Template template = velocityEngine.getTemplate(velocityTemplateBasePath + "layouts/" + layout + ".vm", "UTF-8");
             VelocityContext velocityContext = new VelocityContext();
             velocityContext.put("body", "../" + templatePath + ".vm");
@@ -44,11 +55,34 @@ public class TemplateService {
             StringWriter writer = new StringWriter();
             template.merge(velocityContext, writer);
             String text = writer.toString();
+            renderTimer(templatePath).recordSince(start);
             log.debug("Rendering template \"{}\" done. Output: {}", templatePath, text);
             return text;
         } catch (Throwable e) {
             log.error("Error rendering template \"" + templatePath + "\".", e);
+            renderFailures.increment();
             throw e;
         }
     }
+
+    private Timer renderTimer(String templatePath) {
+        Timer timer = renderTimers.get(templatePath);
+        if (timer == null) {
+            // PDF templates are rendered as "../pdf/<path>", their timer is "template.render.pdf/<path>"
+            timer = renderTimers.computeIfAbsent(templatePath,
+                t -> instrumentation.timer("template.render." + t.replaceFirst("^(\\.\\./)+", "")));
+        }
+        return timer;
+    }
+
+    /**
+     * Sets where to publish the render time of each template (<code>template.render.&lt;templatePath&gt;</code>)
+     * and the failures (<code>template.render.failures</code>).
+     */
+    @Autowired(required = false)
+    public void setInstrumentation(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+        this.renderFailures = instrumentation.counter("template.render.failures");
+        renderTimers.clear();
+    }
 }
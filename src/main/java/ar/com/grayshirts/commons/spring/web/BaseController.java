@@ -2,6 +2,7 @@ package ar.com.grayshirts.commons.spring.web;
 
 import ar.com.grayshirts.commons.exception.BusinessException;
 import ar.com.grayshirts.commons.exception.ResourceNotFoundException;
+import ar.com.grayshirts.commons.spring.pdf.PdfService;
 import ar.com.grayshirts.commons.type.RestErrorResponse;
 import ar.com.grayshirts.commons.type.RestResponse;
 import ar.com.grayshirts.commons.type.RestValidationErrorsResponse;
@@ -11,19 +12,31 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.MessageSource;
 import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.ServletRequestBindingException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.MethodArgumentNotValidException;
+import org.springframework.web.context.request.ServletWebRequest;
 import javax.security.auth.login.AccountLockedException;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.AccessDeniedException;
+import java.nio.file.StandardOpenOption;
 import java.security.DigestException;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 import static org.springframework.http.HttpStatus.*;
 import static com.google.common.base.CaseFormat.*;
 
@@ -35,6 +48,9 @@ public abstract class BaseController {
     @Autowired(required = false)
     protected MessageSource messageSource;
 
+    @Autowired(required = false)
+    protected PdfService pdfService;
+
     @ExceptionHandler(Throwable.class)
     public ResponseEntity<RestResponse> handleException(HttpServletRequest req, Throwable ex) {
         logger.error("Error executing {} {}", req.getMethod(), req.getRequestURI(), ex);
@@ -116,6 +132,132 @@ public abstract class BaseController {
             UNAUTHORIZED.value(), getMsg(ex.getMessage()), exceptionToErrorCode(ex)), UNAUTHORIZED);                    // 401
     }
 
+    /**
+     * Writes `file` to the response as a download, without loading it in memory.<br/>
+     * Sends the <code>ETag</code> and <code>Last-Modified</code> headers, answers
+     * <code>304 Not Modified</code> to conditional requests if the file didn't change, and
+     * honors single byte range requests (<code>Range: bytes=start-end</code>) with
+     * <code>206 Partial Content</code>. When the container supports Tomcat's sendfile the
+     * file is handed to the connector, otherwise it's copied to the response output stream.
+     *
+     * @param contentType the media type, eg. <code>application/pdf</code>
+     * @param filename the name of the downloaded file, or <code>null</code> to display it inline
+     */
+    protected void sendFile(HttpServletRequest req, HttpServletResponse resp, File file,
+                            String contentType, String filename) throws IOException {
+        if (file == null || !file.isFile()) {
+            logger.debug("File not found executing {} {}", req.getMethod(), req.getRequestURI());
+            resp.sendError(NOT_FOUND.value());
+            return;
+        }
+        long length = file.length();
+        long lastModified = file.lastModified();
+        String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified / 1000) + "\"";
+        if (new ServletWebRequest(req, resp).checkNotModified(etag, lastModified)) {
+            return;                                               // 304 or 412, set by Spring
+        }
+        resp.setHeader("Accept-Ranges", "bytes");
+
+        long start = 0, end = length - 1;
+        String range = req.getHeader("Range");
+        String ifRange = req.getHeader("If-Range");
+        // A date in If-Range isn't compared, the whole file is sent as the RFC allows
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            List<HttpRange> ranges;
+            try {
+                ranges = HttpRange.parseRanges(range);
+            } catch (IllegalArgumentException e) {
+                ranges = null;
+            }
+            if (ranges == null || (ranges.size() == 1 && ranges.get(0).getRangeStart(length) >= length)) {
+                resp.setHeader("Content-Range", "bytes */" + length);
+                resp.sendError(REQUESTED_RANGE_NOT_SATISFIABLE.value());   // 416
+                return;
+            }
+            // Multiple ranges are answered with the whole file
+            if (ranges.size() == 1) {
+                start = ranges.get(0).getRangeStart(length);
+                end = ranges.get(0).getRangeEnd(length);
+                resp.setStatus(PARTIAL_CONTENT.value());          // 206
+                resp.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+        long count = end - start + 1;
+        resp.setContentType(contentType);
+        resp.setHeader("Content-Length", String.valueOf(count));
+        if (filename != null) {
+            resp.setHeader("Content-Disposition", "attachment; filename=\"" + filename.replace("\"", "") + "\"");
+        }
+        if ("HEAD".equals(req.getMethod())) return;
+
+        if (Boolean.TRUE.equals(req.getAttribute("org.apache.tomcat.sendfile.support"))) {
+            req.setAttribute("org.apache.tomcat.sendfile.filename", file.getAbsolutePath());
+            req.setAttribute("org.apache.tomcat.sendfile.start", start);
+            req.setAttribute("org.apache.tomcat.sendfile.end", end + 1);     // Exclusive
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(resp.getOutputStream());
+            long position = start;
+            while (count > 0) {
+                long transferred = channel.transferTo(position, count, out);
+                if (transferred <= 0) break;
+                position += transferred;
+                count -= transferred;
+            }
+        }
+    }
+
+    /**
+     * Writes a PDF to the response as it's generated by `renderer`, without buffering it.
+     * Use it with {@link PdfService} or {@link ar.com.grayshirts.commons.spring.pdf.TablePdfService}
+     * when the document isn't cached in a file, otherwise use
+     * {@link #sendFile(HttpServletRequest, HttpServletResponse, File, String, String)}.
+     * <p>
+     * Answers <code>503 Service Unavailable</code> if the PDF generation is disabled
+     * (<code>pdf.enable=false</code>). If `renderer` fails before anything is sent the response
+     * is reset and the error thrown to the exception handlers, but once the response is committed it can
+     * only be logged, and the client receives an incomplete document.
+     *
+     * @param filename the name of the downloaded file, or <code>null</code> to display it inline
+     * @param renderer writes the PDF into the output stream given
+     */
+    protected void sendPdf(HttpServletResponse resp, String filename, Consumer<OutputStream> renderer) throws IOException {
+        if (pdfService != null && !pdfService.isEnable()) {
+            logger.debug("PDF generation disabled, PDF \"{}\" not sent.", filename);
+            resp.sendError(SERVICE_UNAVAILABLE.value());          // 503
+            return;
+        }
+        resp.setContentType("application/pdf");
+        if (filename != null) {
+            resp.setHeader("Content-Disposition", "attachment; filename=\"" + filename.replace("\"", "") + "\"");
+        }
+        try {
+            renderer.accept(resp.getOutputStream());
+        } catch (RuntimeException e) {
+            if (!resp.isCommitted()) {
+                // Drops the PDF headers and the buffered content, so the error isn't saved as a PDF
+                resp.reset();
+                throw e;
+            }
+            logger.error("Error rendering PDF \"{}\" after the response was committed, download aborted.", filename, e);
+        }
+    }
+
+    /**
+     * Renders a PDF with {@link PdfService} straight into the response.
+     *
+     * @see PdfService#render(String, String, String, OutputStream, Map)
+     * @see #sendPdf(HttpServletResponse, String, Consumer)
+     */
+    protected void sendPdf(HttpServletResponse resp, String filename, String templatePath, String layout,
+                           String title, Map<String, Object> context) throws IOException {
+        if (pdfService == null) {
+            throw new IllegalStateException("PdfService not available, check the PDF and template configuration.");
+        }
+        sendPdf(resp, filename, out -> pdfService.render(templatePath, layout, title, out, context));
+    }
+
     protected MessageSource getMessageSource() {
         return messageSource;
     }